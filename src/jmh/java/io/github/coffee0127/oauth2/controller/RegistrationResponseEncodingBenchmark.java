@@ -0,0 +1,83 @@
+package io.github.coffee0127.oauth2.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.coffee0127.oauth2.config.WebFluxConfig;
+import io.github.coffee0127.oauth2.controller.LineNotifyController.RegistrationResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.EncoderHttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+
+/** Encodes registration listings with the JSON encoder configured by {@link WebFluxConfig}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationResponseEncodingBenchmark {
+
+  private static final ResolvableType LIST_TYPE =
+      ResolvableType.forClassWithGenerics(List.class, RegistrationResponse.class);
+
+  @Param({"10", "1000"})
+  private int size;
+
+  private Jackson2JsonEncoder encoder;
+  private DefaultDataBufferFactory bufferFactory;
+  private List<RegistrationResponse> responses;
+
+  @Setup
+  public void setUp() {
+    var configurer = ServerCodecConfigurer.create();
+    new WebFluxConfig(new ObjectMapper()).configureHttpMessageCodecs(configurer);
+    encoder =
+        configurer.getWriters().stream()
+            .filter(EncoderHttpMessageWriter.class::isInstance)
+            .map(writer -> ((EncoderHttpMessageWriter<?>) writer).getEncoder())
+            .filter(Jackson2JsonEncoder.class::isInstance)
+            .map(Jackson2JsonEncoder.class::cast)
+            .findFirst()
+            .orElseThrow();
+    bufferFactory = new DefaultDataBufferFactory();
+
+    responses = new ArrayList<>(size);
+    var now = System.currentTimeMillis();
+    for (int i = 0; i < size; i++) {
+      responses.add(
+          new RegistrationResponse()
+              .setTargetType(i % 2 == 0 ? "USER" : "GROUP")
+              .setTarget("target-" + i)
+              .setExpiryTime(now + i)
+              .setUserId("U" + i / 10));
+    }
+  }
+
+  @Benchmark
+  public int encode() {
+    var buffer =
+        encoder.encodeValue(
+            responses, bufferFactory, LIST_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    var bytes = buffer.readableByteCount();
+    DataBufferUtils.release(buffer);
+    return bytes;
+  }
+}
@@ -0,0 +1,75 @@
+package io.github.coffee0127.oauth2.filter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.server.RequestPath;
+
+/**
+ * Classifies typical request paths with the compiled {@link PathRules} and with the former loop of
+ * {@code String.matches} calls over the exclusion regexes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathRulesBenchmark {
+
+  private static final Set<String> EXCLUDES =
+      Set.of(
+          "/(css|img|js)/.*",
+          "/login",
+          "/unauthorized",
+          "/api/line/(login|auth)",
+          "/api/registrations/auth");
+
+  @Param({"/js/line-notify.js", "/api/line/auth", "/api/registrations", "/admin/line-notify"})
+  private String path;
+
+  private PathRules rules;
+  private RequestPath requestPath;
+
+  @Setup
+  public void setUp() {
+    rules =
+        PathRules.compile(
+            List.of(
+                "/css/**",
+                "/img/**",
+                "/js/**",
+                "/login",
+                "/unauthorized",
+                "/api/line/login",
+                "/api/line/auth",
+                "/api/registrations/auth"));
+    requestPath = RequestPath.parse(path, null);
+  }
+
+  @Benchmark
+  public boolean pathRules() {
+    return rules.matches(requestPath);
+  }
+
+  @Benchmark
+  public boolean regexLoop() {
+    for (String exclude : EXCLUDES) {
+      if (requestPath.value().matches(exclude)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
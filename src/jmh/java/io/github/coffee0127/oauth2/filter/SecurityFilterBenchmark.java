@@ -0,0 +1,85 @@
+package io.github.coffee0127.oauth2.filter;
+
+import io.github.coffee0127.oauth2.constant.OAuth2;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.server.session.InMemoryWebSessionStore;
+import reactor.core.publisher.Mono;
+
+/** Runs {@link SecurityFilter} end to end for a public asset and for a logged in API call. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecurityFilterBenchmark {
+
+  private static final WebFilterChain CHAIN = exchange -> Mono.empty();
+
+  private SecurityFilter filter;
+  private MockServerWebExchange publicExchange;
+  private MockServerWebExchange protectedExchange;
+
+  @Setup
+  public void setUp() {
+    var properties = new SecurityFilterProperties();
+    properties.setPublicPaths(
+        List.of(
+            "/css/**",
+            "/img/**",
+            "/js/**",
+            "/login",
+            "/unauthorized",
+            "/api/line/login",
+            "/api/line/auth",
+            "/api/registrations/auth"));
+    filter = new SecurityFilter(properties);
+
+    publicExchange = MockServerWebExchange.from(MockServerHttpRequest.get("/js/line-notify.js"));
+
+    var session = new InMemoryWebSessionStore().createWebSession().block();
+    session
+        .getAttributes()
+        .put(
+            OAuth2.USER_PRINCIPAL,
+            new UserPrincipal(
+                "https://access.line.me",
+                "U1234567890abcdef1234567890abcdef",
+                "1234567890",
+                Instant.now().plusSeconds(3600),
+                Instant.now(),
+                "nonce",
+                "Benchmark User",
+                null));
+    protectedExchange =
+        MockServerWebExchange.builder(MockServerHttpRequest.get("/api/registrations"))
+            .session(session)
+            .build();
+  }
+
+  @Benchmark
+  public Void publicPath() {
+    return filter.filter(publicExchange, CHAIN).block();
+  }
+
+  @Benchmark
+  public Void protectedPath() {
+    return filter.filter(protectedExchange, CHAIN).block();
+  }
+}
@@ -0,0 +1,83 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the reusable single-pass {@link IdTokenVerifier} against the former login path, which
+ * built a verifier per call and decoded the token a second time to read the claims.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdTokenVerifierBenchmark {
+
+  private static final String ISSUER = "https://access.line.me";
+  private static final String CHANNEL_ID = "1234567890";
+  private static final String CHANNEL_SECRET = "benchmark-channel-secret";
+  private static final String NONCE = "benchmark-nonce";
+
+  private IdTokenVerifier verifier;
+  private String idToken;
+
+  @Setup
+  public void setUp() {
+    verifier = new IdTokenVerifier(CHANNEL_ID, CHANNEL_SECRET);
+    var now = Instant.now();
+    idToken =
+        JWT.create()
+            .withIssuer(ISSUER)
+            .withSubject("U1234567890abcdef1234567890abcdef")
+            .withAudience(CHANNEL_ID)
+            .withIssuedAt(Date.from(now))
+            .withExpiresAt(Date.from(now.plus(1, ChronoUnit.DAYS)))
+            .withClaim("nonce", NONCE)
+            .withClaim("name", "Benchmark User")
+            .withClaim("picture", "https://profile.line-scdn.net/benchmark")
+            .sign(Algorithm.HMAC256(CHANNEL_SECRET));
+  }
+
+  @Benchmark
+  public UserPrincipal singlePass() {
+    return verifier.verify(idToken, NONCE).orElseThrow();
+  }
+
+  @Benchmark
+  public UserPrincipal verifyThenDecode() {
+    JWT.require(Algorithm.HMAC256(CHANNEL_SECRET))
+        .withIssuer(ISSUER)
+        .withAudience(CHANNEL_ID)
+        .withClaim("nonce", NONCE)
+        .acceptLeeway(60)
+        .build()
+        .verify(idToken);
+    var jwt = JWT.decode(idToken);
+    return new UserPrincipal(
+        jwt.getClaim("iss").asString(),
+        jwt.getClaim("sub").asString(),
+        jwt.getClaim("aud").asString(),
+        Instant.ofEpochSecond(jwt.getClaim("exp").asLong()),
+        Instant.ofEpochSecond(jwt.getClaim("iat").asLong()),
+        jwt.getClaim("nonce").asString(),
+        jwt.getClaim("name").asString(),
+        jwt.getClaim("picture").asString());
+  }
+}
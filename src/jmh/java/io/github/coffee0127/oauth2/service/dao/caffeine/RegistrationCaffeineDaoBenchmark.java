@@ -0,0 +1,87 @@
+package io.github.coffee0127.oauth2.service.dao.caffeine;
+
+import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the in-memory registration store at several sizes. Every user owns {@value
+ * #PER_USER} registrations; writes overwrite or re-create existing keys so the size stays stable.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class RegistrationCaffeineDaoBenchmark {
+
+  private static final int PER_USER = 10;
+
+  @Param({"1000", "100000"})
+  private int size;
+
+  private RegistrationCaffeineDao dao;
+  private RegistrationKey[] keys;
+
+  @Setup
+  public void setUp() {
+    dao = new RegistrationCaffeineDao();
+    keys = new RegistrationKey[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] =
+          RegistrationKey.of("U" + (i / PER_USER), i % 2 == 0 ? "USER" : "GROUP", "target-" + i);
+      dao.save(Registration.of(keys[i], "token-" + i)).block();
+    }
+  }
+
+  @Benchmark
+  public Registration save() {
+    var key = randomKey();
+    return dao.save(Registration.of(key, "token")).block();
+  }
+
+  @Benchmark
+  public Registration findOne() {
+    return dao.findOne(randomKey()).block();
+  }
+
+  @Benchmark
+  public List<Registration> find() {
+    return dao.find(randomKey().getUserId()).block();
+  }
+
+  @Benchmark
+  public List<Registration> findByTarget() {
+    return dao.findByTarget(randomKey().getTarget()).block();
+  }
+
+  @Benchmark
+  public List<Registration> findAll() {
+    return dao.findAll().block();
+  }
+
+  @Benchmark
+  public Registration deleteAndSave() {
+    var key = randomKey();
+    dao.delete(key).block();
+    return dao.save(Registration.of(key, "token")).block();
+  }
+
+  private RegistrationKey randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(size)];
+  }
+}
@@ -0,0 +1,97 @@
+package io.github.coffee0127.oauth2.service.scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+/**
+ * Schedules a burst of registration expiries spread over one hour and drives the wheel through two
+ * hours of virtual time, so the measurement covers scheduling, cascading and firing without waiting
+ * on the wall clock.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class TimingWheelBenchmark {
+
+  private static final Duration LIFETIME = Duration.ofHours(1);
+
+  @Param("1000000")
+  private int expiries;
+
+  private VirtualTimeScheduler scheduler;
+  private TimingWheel<Integer> timingWheel;
+  private LongAdder fired;
+
+  @Setup(Level.Invocation)
+  public void setUp() {
+    scheduler = VirtualTimeScheduler.create();
+    fired = new LongAdder();
+    timingWheel =
+        new TimingWheel<Integer>(Duration.ofSeconds(1), 64, 4, scheduler, id -> fired.increment())
+            .start();
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    timingWheel.dispose();
+    scheduler.dispose();
+  }
+
+  @Benchmark
+  public long scheduleAndExpire() {
+    var base = Instant.ofEpochMilli(scheduler.now(TimeUnit.MILLISECONDS)).plus(LIFETIME);
+    var spreadMillis = LIFETIME.toMillis();
+    for (int i = 0; i < expiries; i++) {
+      timingWheel.schedule(i, base.plusMillis(i * spreadMillis / expiries));
+    }
+    scheduler.advanceTimeBy(LIFETIME.multipliedBy(2).plusSeconds(1));
+    return verify(expiries);
+  }
+
+  @Benchmark
+  public long scheduleAndCancelHalf() {
+    var base = Instant.ofEpochMilli(scheduler.now(TimeUnit.MILLISECONDS)).plus(LIFETIME);
+    var spreadMillis = LIFETIME.toMillis();
+    List<TimingWheel.Timeout<Integer>> cancellable = new ArrayList<>(expiries / 2);
+    for (int i = 0; i < expiries; i++) {
+      var timeout = timingWheel.schedule(i, base.plusMillis(i * spreadMillis / expiries));
+      if ((i & 1) == 0) {
+        cancellable.add(timeout);
+      }
+    }
+    cancellable.forEach(TimingWheel.Timeout::cancel);
+    scheduler.advanceTimeBy(LIFETIME.multipliedBy(2).plusSeconds(1));
+    return verify(expiries - cancellable.size());
+  }
+
+  private long verify(long expected) {
+    var actual = fired.sum();
+    if (actual != expected || timingWheel.getPendingCount() != 0) {
+      throw new IllegalStateException(
+          "Expected " + expected + " expiries but fired " + actual + ", pending "
+              + timingWheel.getPendingCount());
+    }
+    return actual;
+  }
+}
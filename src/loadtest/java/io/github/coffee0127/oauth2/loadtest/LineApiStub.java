@@ -0,0 +1,304 @@
+package io.github.coffee0127.oauth2.loadtest;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * Local stand-in for the LINE Login and LINE Notify APIs used by the {@code loadtest} profile.
+ *
+ * <p>The authorize endpoints redirect straight back to the callback. The login code carries the
+ * user ID and the nonce, so the issued ID token is signed with the channel secret and passes
+ * verification. LINE Notify calls report {@code X-RateLimit-*} headers from a per-token budget and
+ * answer 429 once it is spent.
+ *
+ * <p>System properties: {@code stub.port} (18081), {@code stub.latency} (20 ms), {@code
+ * stub.latencyJitter} (10 ms), {@code stub.errorRate} (0.0) of notify calls answered with {@code
+ * stub.errorStatus} (500), {@code stub.rateLimit} (1000 calls per hour and token), {@code
+ * stub.channelId} and {@code stub.channelSecret} (matching the {@code loadtest} profile), {@code
+ * stub.loginTokenTtl} (30 days) of LINE Login access tokens.
+ */
+public class LineApiStub {
+
+  private static final String ISSUER = "https://access.line.me";
+  private static final Duration RATE_LIMIT_WINDOW = Duration.ofHours(1);
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Map<String, RateLimitWindow> rateLimits = new ConcurrentHashMap<>();
+
+  private final int port;
+  private final long latencyMillis;
+  private final long latencyJitterMillis;
+  private final double errorRate;
+  private final int errorStatus;
+  private final int rateLimit;
+  private final String channelId;
+  private final Algorithm algorithm;
+  private final Duration loginTokenTtl;
+
+  public LineApiStub(
+      int port,
+      Duration latency,
+      Duration latencyJitter,
+      double errorRate,
+      int errorStatus,
+      int rateLimit,
+      String channelId,
+      String channelSecret,
+      Duration loginTokenTtl) {
+    this.port = port;
+    this.latencyMillis = latency.toMillis();
+    this.latencyJitterMillis = latencyJitter.toMillis();
+    this.errorRate = errorRate;
+    this.errorStatus = errorStatus;
+    this.rateLimit = rateLimit;
+    this.channelId = channelId;
+    this.algorithm = Algorithm.HMAC256(channelSecret);
+    this.loginTokenTtl = loginTokenTtl;
+  }
+
+  public static void main(String[] args) {
+    var stub =
+        new LineApiStub(
+            Integer.getInteger("stub.port", 18081),
+            Duration.ofMillis(Long.getLong("stub.latency", 20)),
+            Duration.ofMillis(Long.getLong("stub.latencyJitter", 10)),
+            Double.parseDouble(System.getProperty("stub.errorRate", "0.0")),
+            Integer.getInteger("stub.errorStatus", 500),
+            Integer.getInteger("stub.rateLimit", 1000),
+            System.getProperty("stub.channelId", "loadtest-channel"),
+            System.getProperty("stub.channelSecret", "loadtest-channel-secret"),
+            Duration.ofSeconds(Long.getLong("stub.loginTokenTtl", Duration.ofDays(30).toSeconds())));
+    var server = stub.start();
+    System.out.printf("LINE API stub listening on http://localhost:%d%n", server.port());
+    server.onDispose().block();
+  }
+
+  public DisposableServer start() {
+    return HttpServer.create()
+        .port(port)
+        .route(
+            routes ->
+                routes
+                    // LINE Login
+                    .get("/oauth2/v2.1/authorize", this::loginAuthorize)
+                    .post("/oauth2/v2.1/token", this::loginToken)
+                    .post("/oauth2/v2.1/revoke", (request, response) -> delayed(response.send()))
+                    .get("/v2/profile", this::loginProfile)
+                    // LINE Notify
+                    .get("/oauth/authorize", this::notifyAuthorize)
+                    .post("/oauth/token", this::notifyToken)
+                    .get("/api/status", this::notifyStatus)
+                    .post("/api/notify", this::notifyMessage)
+                    .post("/api/revoke", (request, response) -> delayed(ok(response))))
+        .bindNow();
+  }
+
+  private Publisher<Void> loginAuthorize(HttpServerRequest request, HttpServerResponse response) {
+    var parameters = new QueryStringDecoder(request.uri()).parameters();
+    var userId = "U" + UUID.randomUUID().toString().replace("-", "");
+    var code = userId + "." + first(parameters, "nonce");
+    return redirect(response, parameters, code);
+  }
+
+  private Publisher<Void> loginToken(HttpServerRequest request, HttpServerResponse response) {
+    return form(request)
+        .flatMap(
+            parameters -> {
+              if ("refresh_token".equals(first(parameters, "grant_type"))) {
+                var userId = first(parameters, "refresh_token").substring("refresh-".length());
+                return json(
+                    response,
+                    HttpResponseStatus.OK,
+                    Map.of(
+                        "access_token", "login-" + userId,
+                        "token_type", "Bearer",
+                        "expires_in", loginTokenTtl.toSeconds(),
+                        "scope", "openid profile",
+                        "refresh_token", "refresh-" + userId));
+              }
+              var code = first(parameters, "code");
+              var separator = code.indexOf('.');
+              var userId = code.substring(0, separator);
+              var now = Instant.now();
+              var idToken =
+                  JWT.create()
+                      .withIssuer(ISSUER)
+                      .withSubject(userId)
+                      .withAudience(channelId)
+                      .withIssuedAt(Date.from(now))
+                      .withExpiresAt(Date.from(now.plus(Duration.ofHours(1))))
+                      .withClaim("nonce", code.substring(separator + 1))
+                      .withClaim("name", "Load " + userId.substring(1, 9))
+                      .sign(algorithm);
+              return json(
+                  response,
+                  HttpResponseStatus.OK,
+                  Map.of(
+                      "access_token", "login-" + userId,
+                      "token_type", "Bearer",
+                      "expires_in", loginTokenTtl.toSeconds(),
+                      "scope", "openid profile",
+                      "refresh_token", "refresh-" + userId,
+                      "id_token", idToken));
+            });
+  }
+
+  private Publisher<Void> loginProfile(HttpServerRequest request, HttpServerResponse response) {
+    var userId = bearer(request).substring("login-".length());
+    return json(
+        response,
+        HttpResponseStatus.OK,
+        Map.of(
+            "userId", userId,
+            "displayName", "Load " + userId.substring(1, 9),
+            "pictureUrl", "https://profile.line-scdn.net/" + userId));
+  }
+
+  private Publisher<Void> notifyAuthorize(HttpServerRequest request, HttpServerResponse response) {
+    var parameters = new QueryStringDecoder(request.uri()).parameters();
+    return redirect(response, parameters, UUID.randomUUID().toString());
+  }
+
+  private Publisher<Void> notifyToken(HttpServerRequest request, HttpServerResponse response) {
+    return form(request)
+        .flatMap(
+            parameters ->
+                json(
+                    response,
+                    HttpResponseStatus.OK,
+                    Map.of(
+                        "status", 200,
+                        "message", "access_token is issued",
+                        "access_token", "notify-" + first(parameters, "code"))));
+  }
+
+  private Publisher<Void> notifyStatus(HttpServerRequest request, HttpServerResponse response) {
+    var token = bearer(request);
+    return json(
+        response,
+        HttpResponseStatus.OK,
+        Map.of(
+            "status", 200,
+            "message", "ok",
+            "targetType", "USER",
+            "target", "target-" + Integer.toHexString(token.hashCode())));
+  }
+
+  private Publisher<Void> notifyMessage(HttpServerRequest request, HttpServerResponse response) {
+    var now = System.currentTimeMillis();
+    var window =
+        rateLimits.compute(
+            bearer(request),
+            (token, current) ->
+                current == null || current.resetTimeMillis <= now
+                    ? new RateLimitWindow(rateLimit, now + RATE_LIMIT_WINDOW.toMillis())
+                    : current);
+    var remaining = window.remaining.decrementAndGet();
+    response
+        .header("X-RateLimit-Limit", String.valueOf(rateLimit))
+        .header("X-RateLimit-Remaining", String.valueOf(Math.max(remaining, 0)))
+        .header("X-RateLimit-Reset", String.valueOf(window.resetTimeMillis / 1000));
+    return request
+        .receive()
+        .then()
+        .then(
+            Mono.defer(
+                () -> {
+                  if (remaining < 0) {
+                    return json(
+                        response,
+                        HttpResponseStatus.TOO_MANY_REQUESTS,
+                        Map.of("status", 429, "message", "Too Many Requests"));
+                  }
+                  if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    return json(
+                        response,
+                        HttpResponseStatus.valueOf(errorStatus),
+                        Map.of("status", errorStatus, "message", "Injected failure"));
+                  }
+                  return ok(response);
+                }));
+  }
+
+  private Mono<Void> redirect(
+      HttpServerResponse response, Map<String, List<String>> parameters, String code) {
+    var location =
+        first(parameters, "redirect_uri") + "?code=" + code + "&state=" + first(parameters, "state");
+    return delayed(response.sendRedirect(location));
+  }
+
+  private Mono<Void> ok(HttpServerResponse response) {
+    return json(response, HttpResponseStatus.OK, Map.of("status", 200, "message", "ok"));
+  }
+
+  private Mono<Void> json(
+      HttpServerResponse response, HttpResponseStatus status, Map<String, Object> body) {
+    String content;
+    try {
+      content = objectMapper.writeValueAsString(body);
+    } catch (JsonProcessingException e) {
+      return Mono.error(e);
+    }
+    return delayed(
+        response
+            .status(status)
+            .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+            .sendString(Mono.just(content))
+            .then());
+  }
+
+  private Mono<Void> delayed(Publisher<Void> publisher) {
+    var jitter =
+        latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis) : 0;
+    return Mono.delay(Duration.ofMillis(latencyMillis + jitter)).then(Mono.from(publisher));
+  }
+
+  private static Mono<Map<String, List<String>>> form(HttpServerRequest request) {
+    return request
+        .receive()
+        .aggregate()
+        .asString()
+        .defaultIfEmpty("")
+        .map(body -> new QueryStringDecoder(body, false).parameters());
+  }
+
+  private static String bearer(HttpServerRequest request) {
+    var authorization = request.requestHeaders().get(HttpHeaderNames.AUTHORIZATION, "");
+    return authorization.startsWith("Bearer ") ? authorization.substring(7) : authorization;
+  }
+
+  private static String first(Map<String, List<String>> parameters, String name) {
+    var values = parameters.get(name);
+    return values == null || values.isEmpty() ? "" : values.get(0);
+  }
+
+  private static final class RateLimitWindow {
+    private final AtomicInteger remaining;
+    private final long resetTimeMillis;
+
+    private RateLimitWindow(int limit, long resetTimeMillis) {
+      this.remaining = new AtomicInteger(limit);
+      this.resetTimeMillis = resetTimeMillis;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package io.github.coffee0127.oauth2.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.cookie.ClientCookieEncoder;
+import io.netty.handler.codec.http.cookie.Cookie;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Drives the application, running with the {@code loadtest} profile against {@link LineApiStub},
+ * through the login, register, notify and admin broadcast flows and reports throughput and latency
+ * percentiles per step.
+ *
+ * <p>System properties: {@code loadtest.target} (http://localhost:8080), {@code loadtest.users}
+ * (200), {@code loadtest.concurrency} (50), {@code loadtest.notifications} (10 per user) and
+ * {@code loadtest.broadcasts} (5).
+ */
+public class LoadGenerator {
+
+  private static final int MAX_REDIRECTS = 10;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+  private final List<JsonNode> registrations = new ArrayList<>();
+
+  private final URI target;
+  private final HttpClient client;
+
+  public LoadGenerator(URI target, int concurrency) {
+    this.target = target;
+    this.client =
+        HttpClient.create(
+                ConnectionProvider.builder("loadtest")
+                    .maxConnections(concurrency * 2)
+                    .pendingAcquireMaxCount(-1)
+                    .build())
+            .responseTimeout(Duration.ofSeconds(30));
+  }
+
+  public static void main(String[] args) {
+    var target = URI.create(System.getProperty("loadtest.target", "http://localhost:8080"));
+    var users = Integer.getInteger("loadtest.users", 200);
+    var concurrency = Integer.getInteger("loadtest.concurrency", 50);
+    var notifications = Integer.getInteger("loadtest.notifications", 10);
+    var broadcasts = Integer.getInteger("loadtest.broadcasts", 5);
+
+    var generator = new LoadGenerator(target, concurrency);
+    var start = System.nanoTime();
+    Flux.range(0, users)
+        .flatMap(unused -> generator.userFlow(notifications), concurrency)
+        .then(Flux.range(0, broadcasts).concatMap(unused -> generator.broadcast()).then())
+        .block();
+    generator.report(Duration.ofNanos(System.nanoTime() - start));
+  }
+
+  /** Logs in a new user, registers one LINE Notify target and sends notifications to it. */
+  private Mono<Void> userFlow(int notifications) {
+    var session = new Session();
+    return timed("login", follow(session, target.resolve("/api/line/login"), "/"))
+        .then(
+            timed(
+                "register",
+                follow(session, target.resolve("/api/registrations/register"), "/line-notify")))
+        .then(
+            timed(
+                "list",
+                send(session, HttpMethod.GET, target.resolve("/api/registrations"), null)
+                    .map(this::readTree)))
+        .flatMap(
+            listing -> {
+              if (!listing.isArray() || listing.size() == 0) {
+                return Mono.error(new IllegalStateException("No registration listed"));
+              }
+              var registration = listing.get(0);
+              synchronized (registrations) {
+                registrations.add(registration);
+              }
+              var body =
+                  objectMapper
+                      .createObjectNode()
+                      .put("type", registration.path("targetType").asText())
+                      .put("target", registration.path("target").asText())
+                      .put("msg", "load test")
+                      .toString();
+              return Flux.range(0, notifications)
+                  .concatMap(
+                      unused ->
+                          timed(
+                              "notify",
+                              send(
+                                  session,
+                                  HttpMethod.POST,
+                                  target.resolve("/api/registrations"),
+                                  body)))
+                  .then();
+            })
+        .onErrorResume(throwable -> Mono.empty());
+  }
+
+  /** Sends one message to every registration created so far through the admin NDJSON endpoint. */
+  private Mono<Void> broadcast() {
+    String body;
+    synchronized (registrations) {
+      body =
+          registrations.stream()
+              .map(
+                  registration ->
+                      objectMapper
+                          .createObjectNode()
+                          .put("userId", registration.path("userId").asText())
+                          .put("type", registration.path("targetType").asText())
+                          .put("target", registration.path("target").asText())
+                          .put("msg", "load test broadcast")
+                          .toString())
+              .collect(Collectors.joining("\n"));
+    }
+    var session = new Session();
+    return follow(session, target.resolve("/api/line/login"), "/")
+        .then(
+            timed(
+                "broadcast",
+                send(
+                    session,
+                    HttpMethod.POST,
+                    target.resolve("/admin/api/registrations"),
+                    body,
+                    "application/x-ndjson")))
+        .then()
+        .onErrorResume(throwable -> Mono.empty());
+  }
+
+  /** Follows redirects from {@code uri} and succeeds when the chain ends at {@code expectedPath}. */
+  private Mono<String> follow(Session session, URI uri, String expectedPath) {
+    return follow(session, uri, expectedPath, 0);
+  }
+
+  private Mono<String> follow(Session session, URI uri, String expectedPath, int redirects) {
+    if (redirects > MAX_REDIRECTS) {
+      return Mono.error(new IllegalStateException("Too many redirects at " + uri));
+    }
+    // request headers are copied when the client is configured, so read the cookie jar only once
+    // the previous step has completed
+    return Mono.defer(
+        () ->
+            client
+                .followRedirect(false)
+                .headers(session::apply)
+                .get()
+                .uri(uri)
+                .responseSingle(
+                    (response, content) -> {
+                      session.store(response.cookies());
+                      var location = response.responseHeaders().get(HttpHeaderNames.LOCATION);
+                      if (response.status().code() / 100 == 3 && location != null) {
+                        var next = uri.resolve(location);
+                        if (next.getQuery() != null && next.getQuery().contains("error=")) {
+                          return Mono.error(new IllegalStateException("Redirected to " + next));
+                        }
+                        return content.then(follow(session, next, expectedPath, redirects + 1));
+                      }
+                      if (response.status().code() >= 400 || !expectedPath.equals(uri.getPath())) {
+                        return Mono.error(
+                            new IllegalStateException(uri + " answered " + response.status()));
+                      }
+                      return content.asString().defaultIfEmpty("");
+                    }));
+  }
+
+  private Mono<String> send(Session session, HttpMethod method, URI uri, String json) {
+    return send(session, method, uri, json, "application/json");
+  }
+
+  private Mono<String> send(
+      Session session, HttpMethod method, URI uri, String body, String contentType) {
+    return Mono.defer(
+        () ->
+            client
+                .headers(
+                    headers -> {
+                      session.apply(headers);
+                      if (body != null) {
+                        headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
+                        headers.set(HttpHeaderNames.ACCEPT, contentType);
+                      }
+                    })
+                .request(method)
+                .uri(uri)
+                .send(body == null ? ByteBufFlux.empty() : ByteBufFlux.fromString(Mono.just(body)))
+                .responseSingle(
+                    (response, content) ->
+                        response.status().code() < 400
+                            ? content.asString().defaultIfEmpty("")
+                            : Mono.error(
+                                new IllegalStateException(
+                                    uri + " answered " + response.status()))));
+  }
+
+  private <T> Mono<T> timed(String step, Mono<T> call) {
+    var stepStats = stats.computeIfAbsent(step, unused -> new Stats());
+    return Mono.defer(
+        () -> {
+          var start = System.nanoTime();
+          return call.doOnSuccess(unused -> stepStats.success(System.nanoTime() - start))
+              .doOnError(throwable -> stepStats.failure(throwable));
+        });
+  }
+
+  private JsonNode readTree(String json) {
+    try {
+      return objectMapper.readTree(json);
+    } catch (Exception e) {
+      throw new IllegalStateException("Unreadable response: " + json, e);
+    }
+  }
+
+  private void report(Duration elapsed) {
+    var seconds = elapsed.toMillis() / 1000.0;
+    System.out.printf("Finished in %.1f s%n", seconds);
+    System.out.printf(
+        "%-10s %8s %7s %9s %9s %9s %9s %9s%n",
+        "step", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    stats.forEach(
+        (step, stepStats) -> {
+          var latencies = stepStats.latencies.stream().mapToLong(Long::longValue).toArray();
+          Arrays.sort(latencies);
+          System.out.printf(
+              "%-10s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+              step,
+              latencies.length,
+              stepStats.errors.get(),
+              latencies.length / seconds,
+              percentile(latencies, 0.50),
+              percentile(latencies, 0.90),
+              percentile(latencies, 0.99),
+              percentile(latencies, 1.0));
+          stepStats.firstError.ifPresent(error -> System.out.printf("  first error: %s%n", error));
+        });
+  }
+
+  private static double percentile(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    var index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+  }
+
+  /** Cookie jar of one virtual user. */
+  private static final class Session {
+    private final Map<String, Cookie> cookies = new ConcurrentHashMap<>();
+
+    private HttpHeaders apply(HttpHeaders headers) {
+      if (!cookies.isEmpty()) {
+        headers.set(HttpHeaderNames.COOKIE, ClientCookieEncoder.STRICT.encode(cookies.values()));
+      }
+      return headers;
+    }
+
+    private void store(Map<CharSequence, Set<Cookie>> received) {
+      received.values().stream()
+          .flatMap(Set::stream)
+          .forEach(
+              cookie -> {
+                if (cookie.maxAge() == 0) {
+                  cookies.remove(cookie.name());
+                } else {
+                  cookies.put(cookie.name(), cookie);
+                }
+              });
+    }
+  }
+
+  private static final class Stats {
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile Optional<String> firstError = Optional.empty();
+
+    private void success(long nanos) {
+      latencies.add(nanos);
+    }
+
+    private void failure(Throwable throwable) {
+      if (errors.getAndIncrement() == 0) {
+        firstError = Optional.of(throwable.getMessage());
+      }
+    }
+  }
+}
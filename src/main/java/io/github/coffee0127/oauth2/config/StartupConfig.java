@@ -0,0 +1,49 @@
+package io.github.coffee0127.oauth2.config;
+
+import io.github.coffee0127.oauth2.controller.LineController;
+import io.github.coffee0127.oauth2.controller.LineNotifyController;
+import io.github.coffee0127.oauth2.service.NotificationQueue;
+import io.github.coffee0127.oauth2.service.ScheduleManager;
+import io.github.coffee0127.oauth2.service.client.LineClient;
+import io.github.coffee0127.oauth2.service.client.LineNotifyClient;
+import java.lang.management.ManagementFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** Startup of the application, see the {@code startup} profile. */
+@Slf4j
+@Configuration
+public class StartupConfig {
+
+  /**
+   * Beans still created at boot under {@code spring.main.lazy-initialization}: the LINE clients and
+   * the OAuth callbacks, so the first login after a restart is not slowed down, and the beans
+   * resuming pending notifications and registration expiries.
+   */
+  @Bean
+  public static LazyInitializationExcludeFilter eagerBeans() {
+    return LazyInitializationExcludeFilter.forBeanTypes(
+        LineClient.class,
+        LineNotifyClient.class,
+        LineController.class,
+        LineNotifyController.class,
+        NotificationQueue.class,
+        ScheduleManager.class);
+  }
+
+  /** Exits once ready, for the class data sharing training run and the startup benchmark. */
+  @Bean
+  @ConditionalOnProperty("startup.exitOnReady")
+  public ApplicationListener<ApplicationReadyEvent> exitOnReady() {
+    return event -> {
+      log.info("Ready in {} ms", ManagementFactory.getRuntimeMXBean().getUptime());
+      System.exit(SpringApplication.exit(event.getApplicationContext()));
+    };
+  }
+}
@@ -0,0 +1,35 @@
+package io.github.coffee0127.oauth2.config;
+
+import io.github.coffee0127.oauth2.service.dao.SessionDao;
+import io.github.coffee0127.oauth2.service.session.CompactWebSessionStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+import org.springframework.web.server.session.WebSessionIdResolver;
+import org.springframework.web.server.session.WebSessionManager;
+import org.springframework.web.server.session.WebSessionStore;
+
+/** Replaces the default in-memory session store with one backed by a {@link SessionDao}. */
+@Configuration
+public class WebSessionConfig {
+
+  /** Also used to update sessions outside of their requests, see LoginTokenManager. */
+  @Bean
+  public CompactWebSessionStore webSessionStore(
+      SessionDao sessionDao, ServerProperties serverProperties) {
+    var timeout = serverProperties.getReactive().getSession().getTimeout();
+    return new CompactWebSessionStore(sessionDao, timeout);
+  }
+
+  @Bean(WebHttpHandlerBuilder.WEB_SESSION_MANAGER_BEAN_NAME)
+  public WebSessionManager webSessionManager(
+      WebSessionStore webSessionStore, ObjectProvider<WebSessionIdResolver> webSessionIdResolver) {
+    var webSessionManager = new DefaultWebSessionManager();
+    webSessionManager.setSessionStore(webSessionStore);
+    webSessionIdResolver.ifAvailable(webSessionManager::setSessionIdResolver);
+    return webSessionManager;
+  }
+}
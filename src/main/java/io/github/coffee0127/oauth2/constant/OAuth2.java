@@ -3,4 +3,7 @@ package io.github.coffee0127.oauth2.constant;
 public class OAuth2 {
 
   public static final String USER_PRINCIPAL = "OAuth2.USER_PRINCIPAL";
+
+  /** The current LINE Login token of the session, named after the controller that once owned it. */
+  public static final String LINE_ACCESS_TOKEN = "LineController.LINE_ACCESS_TOKEN";
 }
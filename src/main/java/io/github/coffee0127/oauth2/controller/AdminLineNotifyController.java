@@ -1,26 +1,41 @@
 package io.github.coffee0127.oauth2.controller;
 
+import io.github.coffee0127.oauth2.controller.LineNotifyController.NotificationResponse;
 import io.github.coffee0127.oauth2.controller.LineNotifyController.NotifyRequest;
 import io.github.coffee0127.oauth2.controller.LineNotifyController.RegistrationResponse;
+import io.github.coffee0127.oauth2.controller.utils.ServerSentEventUtils;
+import io.github.coffee0127.oauth2.objects.Notification;
 import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
 import io.github.coffee0127.oauth2.service.LineNotifyService;
+import io.github.coffee0127.oauth2.service.NotificationQueue;
 import io.github.coffee0127.oauth2.service.UserService;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
-import lombok.AllArgsConstructor;
+import java.util.stream.Collectors;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Slf4j
 @RestController
 @RequestMapping("/admin/api/registrations")
@@ -29,51 +44,268 @@ public class AdminLineNotifyController {
 
   private final UserService userService;
 
+  private final NotificationQueue notificationQueue;
+
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final int STREAM_PAGE_SIZE = 500;
+  private static final String CURSOR_SEPARATOR = "\u0000";
+  private static final Base64.Encoder CURSOR_ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder CURSOR_DECODER = Base64.getUrlDecoder();
+
+  @Value("${line.notify.broadcast.concurrency:32}")
+  private int broadcastConcurrency;
+
   @GetMapping
-  public Mono<List<RegistrationResponse>> list() {
-    return notifyService
-        .findRegistrations()
+  public Mono<List<RegistrationResponse>> list(
+      @RequestParam(value = "targetType", required = false) String targetType,
+      @RequestParam(value = "target", required = false) String target) {
+    return findRegistrations(targetType, target)
         .flatMap(
             registrations ->
                 Flux.fromIterable(registrations)
-                    .parallel()
-                    .runOn(Schedulers.parallel())
-                    .flatMap(this::attachUserProfile)
-                    .sequential()
+                    .buffer(MAX_PAGE_SIZE)
+                    .concatMap(this::attachUserProfiles)
                     .collectList());
   }
 
-  private Mono<RegistrationResponse> attachUserProfile(Registration registration) {
+  /**
+   * One page of all registrations, ordered by user, target type and target.
+   *
+   * @param cursor {@code nextCursor} of the previous page, absent for the first page
+   */
+  @GetMapping("/page")
+  public Mono<RegistrationPageResponse> page(
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestParam(value = "limit", defaultValue = "100") int limit) {
+    var pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    return notifyService
+        .findRegistrationPage(decodeCursor(cursor), pageSize)
+        .collectList()
+        .flatMap(
+            registrations -> {
+              var nextCursor =
+                  registrations.size() < pageSize
+                      ? null
+                      : encodeCursor(
+                          registrations.get(registrations.size() - 1).getRegistrationKey());
+              return attachUserProfiles(registrations)
+                  .collectList()
+                  .map(
+                      responses ->
+                          new RegistrationPageResponse()
+                              .setItems(responses)
+                              .setNextCursor(nextCursor));
+            });
+  }
+
+  /**
+   * Streams all registrations as NDJSON in the order of {@link #page}, reading them page by page,
+   * so the first lines are written at once and memory stays flat whatever the registration count.
+   */
+  @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<RegistrationResponse> stream() {
+    return notifyService
+        .findRegistrationPage(null, STREAM_PAGE_SIZE)
+        .collectList()
+        .expand(
+            registrations ->
+                registrations.size() < STREAM_PAGE_SIZE
+                    ? Mono.empty()
+                    : notifyService
+                        .findRegistrationPage(
+                            registrations.get(registrations.size() - 1).getRegistrationKey(),
+                            STREAM_PAGE_SIZE)
+                        .collectList())
+        .concatMap(this::attachUserProfiles);
+  }
+
+  /**
+   * Saves, deletes and expiries of all registrations as server-sent events named after the {@link
+   * RegistrationChange.Type}, saved ones with the user name like {@link #page}.
+   */
+  @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<RegistrationResponse>> changes() {
+    return ServerSentEventUtils.withHeartbeat(
+        notifyService
+            .registrationChanges()
+            .concatMap(
+                change ->
+                    (change.getType() == RegistrationChange.Type.SAVED
+                            ? attachUserProfiles(List.of(change.getRegistration()))
+                            : Flux.just(RegistrationResponse.of(change)))
+                        .map(
+                            response ->
+                                ServerSentEvent.builder(response)
+                                    .event(change.getType().name())
+                                    .build())));
+  }
+
+  private static String encodeCursor(RegistrationKey registrationKey) {
+    var key =
+        String.join(
+            CURSOR_SEPARATOR,
+            registrationKey.getUserId(),
+            registrationKey.getTargetType(),
+            registrationKey.getTarget());
+    return CURSOR_ENCODER.encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static RegistrationKey decodeCursor(String cursor) {
+    if (StringUtils.isEmpty(cursor)) {
+      return null;
+    }
+    try {
+      var key = new String(CURSOR_DECODER.decode(cursor), StandardCharsets.UTF_8);
+      var parts = key.split(CURSOR_SEPARATOR, -1);
+      if (parts.length == 3) {
+        return RegistrationKey.of(parts[0], parts[1], parts[2]);
+      }
+    } catch (IllegalArgumentException e) {
+      // reported below
+    }
+    throw new ServerWebInputException("Invalid cursor: " + cursor);
+  }
+
+  private Mono<List<Registration>> findRegistrations(String targetType, String target) {
+    if (StringUtils.isNotBlank(target)) {
+      return notifyService
+          .findRegistrationsByTarget(target)
+          .map(
+              registrations ->
+                  registrations.stream()
+                      .filter(
+                          registration ->
+                              StringUtils.isBlank(targetType)
+                                  || targetType.equals(
+                                      registration.getRegistrationKey().getTargetType()))
+                      .collect(Collectors.toList()));
+    }
+    if (StringUtils.isNotBlank(targetType)) {
+      return notifyService.findRegistrationsByTargetType(targetType);
+    }
+    return notifyService.findRegistrations();
+  }
+
+  /**
+   * Looks up the distinct users of {@code registrations} at once and skips registrations of unknown
+   * users, keeping the order.
+   */
+  private Flux<RegistrationResponse> attachUserProfiles(List<Registration> registrations) {
+    var userIds =
+        registrations.stream()
+            .map(registration -> registration.getRegistrationKey().getUserId())
+            .collect(Collectors.toSet());
     return userService
-        .find(registration.getRegistrationKey().getUserId())
-        .map(
-            userPrincipal ->
-                new RegistrationResponse()
-                    .setUserId(registration.getRegistrationKey().getUserId())
-                    .setUserName(userPrincipal.getName())
-                    .setTargetType(registration.getRegistrationKey().getTargetType())
-                    .setTarget(registration.getRegistrationKey().getTarget())
-                    .setExpiryTime(registration.getExpiryTime().toEpochMilli()));
+        .findAll(userIds)
+        .flatMapIterable(
+            users ->
+                registrations.stream()
+                    .filter(
+                        registration ->
+                            users.containsKey(registration.getRegistrationKey().getUserId()))
+                    .map(
+                        registration ->
+                            new RegistrationResponse()
+                                .setUserId(registration.getRegistrationKey().getUserId())
+                                .setUserName(
+                                    users.get(registration.getRegistrationKey().getUserId())
+                                        .getName())
+                                .setTargetType(registration.getRegistrationKey().getTargetType())
+                                .setTarget(registration.getRegistrationKey().getTarget())
+                                .setExpiryTime(registration.getExpiryTime().toEpochMilli()))
+                    .collect(Collectors.toList()));
   }
 
+  /**
+   * Accepts all notifications into the {@link NotificationQueue} at once, or none of them when the
+   * queue cannot take them all, see {@link #notification}.
+   */
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-  public Mono<ResponseEntity<Void>> notifyAll(
+  public Mono<ResponseEntity<NotifyAllAcceptedResponse>> notifyAll(
       @RequestBody Mono<List<NotifyRequest>> notifyRequests) {
     return notifyRequests
-        .flatMapMany(Flux::fromIterable)
-        .parallel()
-        .runOn(Schedulers.parallel())
-        .flatMap(
-            notifyRequest -> {
-              var registrationKey =
-                  new RegistrationKey()
-                      .setUserId(notifyRequest.getUserId())
-                      .setTargetType(notifyRequest.getType())
-                      .setTarget(notifyRequest.getTarget());
-              return notifyService.notify(registrationKey, notifyRequest.getMsg());
-            })
-        .sequential()
-        .collectList()
-        .thenReturn(ResponseEntity.ok().build());
+        .map(
+            requests ->
+                requests.stream()
+                    .map(
+                        notifyRequest ->
+                            Notification.of(
+                                RegistrationKey.of(
+                                    notifyRequest.getUserId(),
+                                    notifyRequest.getType(),
+                                    notifyRequest.getTarget()),
+                                notifyRequest.getMsg()))
+                    .collect(Collectors.toList()))
+        .flatMap(notificationQueue::enqueueAll)
+        .map(ids -> ResponseEntity.accepted().body(new NotifyAllAcceptedResponse().setIds(ids)));
+  }
+
+  @GetMapping("/notifications/{id}")
+  public Mono<ResponseEntity<NotificationResponse>> notification(@PathVariable("id") String id) {
+    return notificationQueue
+        .find(id)
+        .map(notification -> ResponseEntity.ok(NotificationResponse.of(notification)))
+        .defaultIfEmpty(ResponseEntity.notFound().build());
+  }
+
+  /**
+   * Streaming variant of {@link #notifyAll(Mono)}: reads the recipients as NDJSON, sends with at
+   * most {@code line.notify.broadcast.concurrency} requests in flight and writes one result line per
+   * recipient as soon as its send completes.
+   */
+  @PostMapping(
+      consumes = MediaType.APPLICATION_NDJSON_VALUE,
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<NotifyResult> notifyAllStream(@RequestBody Flux<NotifyRequest> notifyRequests) {
+    return notifyRequests.flatMap(this::send, broadcastConcurrency);
+  }
+
+  private Mono<NotifyResult> send(NotifyRequest notifyRequest) {
+    var registrationKey =
+        RegistrationKey.of(
+            notifyRequest.getUserId(), notifyRequest.getType(), notifyRequest.getTarget());
+    var result =
+        new NotifyResult()
+            .setUserId(notifyRequest.getUserId())
+            .setType(notifyRequest.getType())
+            .setTarget(notifyRequest.getTarget());
+    return notifyService
+        .send(registrationKey, notifyRequest.getMsg())
+        .map(message -> result.setStatus(NotifyStatus.SENT).setMessage(message))
+        .switchIfEmpty(Mono.fromSupplier(() -> result.setStatus(NotifyStatus.SKIPPED)))
+        .onErrorResume(
+            throwable ->
+                Mono.just(
+                    result.setStatus(NotifyStatus.FAILED).setMessage(throwable.getMessage())));
+  }
+
+  enum NotifyStatus {
+    SENT,
+    SKIPPED,
+    FAILED
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class NotifyResult {
+    private String userId;
+    private String type;
+    private String target;
+    private NotifyStatus status;
+    private String message;
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class NotifyAllAcceptedResponse {
+    private List<String> ids;
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class RegistrationPageResponse {
+    private List<RegistrationResponse> items;
+    /** Cursor of the following page, {@code null} on the last page. */
+    private String nextCursor;
   }
 }
@@ -0,0 +1,85 @@
+package io.github.coffee0127.oauth2.controller;
+
+import io.github.coffee0127.oauth2.service.NotificationQueue;
+import io.github.coffee0127.oauth2.service.ScheduleManager;
+import io.github.coffee0127.oauth2.service.client.CircuitBreaker;
+import io.github.coffee0127.oauth2.service.client.LineCallResilience;
+import java.time.Instant;
+import java.util.Optional;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@AllArgsConstructor
+@RestController
+@RequestMapping("/admin/api/status")
+public class AdminStatusController {
+
+  private final ScheduleManager scheduleManager;
+  private final LineCallResilience resilience;
+  private final NotificationQueue notificationQueue;
+
+  @GetMapping("/scheduler")
+  public Mono<SchedulerStatusResponse> scheduler() {
+    var timingWheel = scheduleManager.getTimingWheel();
+    return Mono.just(
+        new SchedulerStatusResponse()
+            .setPendingCount(timingWheel.getPendingCount())
+            .setFiredCount(timingWheel.getFiredCount())
+            .setLastLagMillis(timingWheel.getLastLag().toMillis())
+            .setMaxLagMillis(timingWheel.getMaxLag().toMillis()));
+  }
+
+  @GetMapping("/notification-queue")
+  public Mono<NotificationQueueStatusResponse> notificationQueue() {
+    return Mono.just(
+        new NotificationQueueStatusResponse()
+            .setPendingCount(notificationQueue.getPendingCount())
+            .setCapacity(notificationQueue.getCapacity()));
+  }
+
+  @GetMapping("/circuit-breakers")
+  public Flux<CircuitBreakerStatusResponse> circuitBreakers() {
+    return Flux.fromIterable(resilience.getCircuitBreakers())
+        .map(
+            circuitBreaker ->
+                new CircuitBreakerStatusResponse()
+                    .setName(circuitBreaker.getName())
+                    .setState(circuitBreaker.getState())
+                    .setConsecutiveFailures(circuitBreaker.getConsecutiveFailures())
+                    .setRetryTime(
+                        Optional.ofNullable(circuitBreaker.getRetryTime())
+                            .map(Instant::toEpochMilli)
+                            .orElse(null)));
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class SchedulerStatusResponse {
+    private Long pendingCount;
+    private Long firedCount;
+    private Long lastLagMillis;
+    private Long maxLagMillis;
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class NotificationQueueStatusResponse {
+    private Integer pendingCount;
+    private Integer capacity;
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class CircuitBreakerStatusResponse {
+    private String name;
+    private CircuitBreaker.State state;
+    private Integer consecutiveFailures;
+    private Long retryTime;
+  }
+}
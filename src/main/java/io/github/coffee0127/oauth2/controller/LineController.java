@@ -8,12 +8,19 @@ import io.github.coffee0127.oauth2.objects.Registration;
 import io.github.coffee0127.oauth2.objects.UserPrincipal;
 import io.github.coffee0127.oauth2.service.LineNotifyService;
 import io.github.coffee0127.oauth2.service.LineService;
+import io.github.coffee0127.oauth2.service.LoginTokenManager;
+import io.github.coffee0127.oauth2.service.StateTokenService;
+import io.github.coffee0127.oauth2.service.StateTokenService.Purpose;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
-import java.util.UUID;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -29,30 +36,39 @@ import reactor.core.scheduler.Schedulers;
 @RequestMapping("/api/line")
 public class LineController {
 
-  private static final String LINE_LOGIN_STATE = "LineController.LINE_LOGIN_STATE";
-  private static final String LINE_LOGIN_NONCE = "LineController.LINE_LOGIN_NONCE";
-  private static final String LINE_ACCESS_TOKEN = "LineController.LINE_ACCESS_TOKEN";
+  /** Binds the LINE Login state to the browser starting the login, see {@link #auth}. */
+  private static final String LOGIN_BINDING_COOKIE = "LINE_LOGIN_BINDING";
+
+  private static final String AUTH_PATH = "/api/line/auth";
 
   private final LineService lineService;
 
   private final LineNotifyService lineNotifyService;
 
+  private final StateTokenService stateTokenService;
+
+  private final LoginTokenManager loginTokenManager;
+
   @GetMapping("/login")
-  public Mono<Void> login(WebSession session, ServerHttpResponse response) {
-    var state = UUID.randomUUID().toString();
-    var nonce = UUID.randomUUID().toString();
-    session.getAttributes().put(LINE_LOGIN_STATE, state);
-    session.getAttributes().put(LINE_LOGIN_NONCE, nonce);
-    var redirectUri = lineService.getRedirectUri(state, nonce);
+  public Mono<Void> login(ServerHttpRequest request, ServerHttpResponse response) {
+    var state = stateTokenService.issue(Purpose.LINE_LOGIN, null);
+    response.addCookie(
+        ResponseCookie.from(LOGIN_BINDING_COOKIE, stateTokenService.binding(state))
+            .path(AUTH_PATH)
+            .maxAge(Duration.between(Instant.now(), state.getExpiryTime()))
+            .httpOnly(true)
+            .secure("https".equals(request.getURI().getScheme()))
+            // sent along the top-level redirect back from LINE
+            .sameSite("Lax")
+            .build());
+    var redirectUri = lineService.getRedirectUri(state.getToken(), state.getNonce());
     log.debug("redirectUri = {}", redirectUri);
     return RedirectUtils.redirect(response, redirectUri);
   }
 
   @GetMapping("/logout")
   public Mono<Void> logout(WebSession session, ServerHttpResponse response) {
-    return Mono.justOrEmpty(
-            Optional.ofNullable(session.<AccessTokenResponse>getAttribute(LINE_ACCESS_TOKEN))
-                .map(AccessTokenResponse::getAccessToken))
+    return Mono.justOrEmpty(getAccessToken(session))
         .flatMap(lineService::revoke)
         .then(session.invalidate())
         .then(RedirectUtils.redirect(response, "/login"));
@@ -60,9 +76,7 @@ public class LineController {
 
   @GetMapping("/cleanUp")
   public Mono<Void> cleanup(WebSession session, ServerHttpResponse response) {
-    return Mono.justOrEmpty(
-            Optional.ofNullable(session.<AccessTokenResponse>getAttribute(LINE_ACCESS_TOKEN))
-                .map(AccessTokenResponse::getAccessToken))
+    return Mono.justOrEmpty(getAccessToken(session))
         .flatMap(lineService::revoke)
         .then(lineNotifyService.findRegistrations(getUserId(session)))
         .flatMapMany(Flux::fromIterable)
@@ -76,6 +90,17 @@ public class LineController {
         .then(RedirectUtils.redirect(response, "/login"));
   }
 
+  /** The token kept for this session by the {@link LoginTokenManager}, otherwise its last stored. */
+  private Optional<String> getAccessToken(WebSession session) {
+    return loginTokenManager
+        .release(session.getId())
+        .or(
+            () ->
+                Optional.ofNullable(
+                        session.<AccessTokenResponse>getAttribute(OAuth2.LINE_ACCESS_TOKEN))
+                    .map(AccessTokenResponse::getAccessToken));
+  }
+
   private String getUserId(WebSession session) {
     return Optional.ofNullable(session.<UserPrincipal>getAttribute(OAuth2.USER_PRINCIPAL))
         .map(UserPrincipal::getUserId)
@@ -89,8 +114,12 @@ public class LineController {
       @RequestParam(value = "scope", required = false) String scope,
       @RequestParam(value = "error", required = false) String errorCode,
       @RequestParam(value = "error_description", required = false) String errorMessage,
+      @CookieValue(value = LOGIN_BINDING_COOKIE, required = false) String binding,
       WebSession session,
       ServerHttpResponse response) {
+    // one callback per login, a replayed callback URL finds no binding
+    response.addCookie(
+        ResponseCookie.from(LOGIN_BINDING_COOKIE, "").path(AUTH_PATH).maxAge(0).build());
     if (log.isDebugEnabled()) {
       log.debug("parameter code : {}", code);
       log.debug("parameter state : {}", state);
@@ -103,14 +132,18 @@ public class LineController {
       return RedirectUtils.redirect(response, createRedirectUri(ErrorCode.LOGIN_FAILED_CALLBACK));
     }
 
-    var sessionState = session.<String>getAttribute(LINE_LOGIN_STATE);
-    if (StringUtils.isNotBlank(state) && !StringUtils.equals(state, sessionState)) {
-      log.error("Mismatch state, parameter state : {}, session state : {}", state, sessionState);
+    // a state issued to another browser would log this one in as someone else (login CSRF)
+    var verifiedState =
+        stateTokenService
+            .verify(Purpose.LINE_LOGIN, state)
+            .filter(token -> stateTokenService.isBound(token, binding));
+    if (verifiedState.isEmpty()) {
+      log.error("Mismatch state, parameter state : {}", state);
       return RedirectUtils.redirect(
           response, createRedirectUri(ErrorCode.LOGIN_FAILED_MISMATCH_STATE));
     }
 
-    session.getAttributes().remove(LINE_LOGIN_STATE);
+    var nonce = verifiedState.get().getNonce();
     return lineService
         .getAccessToken(code)
         .flatMap(
@@ -123,8 +156,8 @@ public class LineController {
                 log.debug("refresh_token : {}", token.getRefreshToken());
                 log.debug("id_token : {}", token.getIdToken());
               }
-              session.getAttributes().put(LINE_ACCESS_TOKEN, token);
-              return extractUserProfile(session, response, token);
+              session.getAttributes().put(OAuth2.LINE_ACCESS_TOKEN, token);
+              return extractUserProfile(session, response, token, nonce);
             });
   }
 
@@ -133,17 +166,24 @@ public class LineController {
   }
 
   private Mono<Void> extractUserProfile(
-      WebSession session, ServerHttpResponse response, AccessTokenResponse accessToken) {
-    if (!lineService.verifyIdToken(
-        accessToken.getIdToken(), session.getAttribute(LINE_LOGIN_NONCE))) {
+      WebSession session,
+      ServerHttpResponse response,
+      AccessTokenResponse accessToken,
+      String nonce) {
+    var verifiedUser = lineService.verifyIdToken(accessToken.getIdToken(), nonce);
+    if (verifiedUser.isEmpty()) {
       log.error("id_token is invalid");
       return RedirectUtils.redirect(
           response, createRedirectUri(ErrorCode.LOGIN_FAILED_INVALID_ID_TOKEN));
     }
 
-    session.getAttributes().remove(LINE_LOGIN_NONCE);
+    var user = verifiedUser.get();
+    if (accessToken.getExpiresIn() != null) {
+      // signed in as long as the token, which the LoginTokenManager keeps extending
+      user = user.withExpiryTime(Instant.now().plusSeconds(accessToken.getExpiresIn()));
+    }
     return lineService
-        .findUser(accessToken.getIdToken())
+        .saveUser(user)
         .doOnSuccess(
             userPrincipal -> {
               if (log.isDebugEnabled()) {
@@ -155,6 +195,7 @@ public class LineController {
         .flatMap(
             userPrincipal -> {
               session.getAttributes().put(OAuth2.USER_PRINCIPAL, userPrincipal);
+              loginTokenManager.track(session.getId(), accessToken);
               return RedirectUtils.redirect(response, "/");
             });
   }
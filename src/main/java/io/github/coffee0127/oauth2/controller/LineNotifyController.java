@@ -3,17 +3,22 @@ package io.github.coffee0127.oauth2.controller;
 import io.github.coffee0127.oauth2.constant.ErrorCode;
 import io.github.coffee0127.oauth2.constant.OAuth2;
 import io.github.coffee0127.oauth2.controller.utils.RedirectUtils;
+import io.github.coffee0127.oauth2.controller.utils.ServerSentEventUtils;
+import io.github.coffee0127.oauth2.objects.Notification;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
 import io.github.coffee0127.oauth2.objects.UserPrincipal;
 import io.github.coffee0127.oauth2.service.LineNotifyService;
+import io.github.coffee0127.oauth2.service.NotificationQueue;
 import io.github.coffee0127.oauth2.service.ScheduleManager;
+import io.github.coffee0127.oauth2.service.StateTokenService;
+import io.github.coffee0127.oauth2.service.StateTokenService.Purpose;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.time.Instant;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -22,9 +27,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -33,6 +40,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ServerWebExchange;
 import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @AllArgsConstructor
@@ -40,14 +48,10 @@ import reactor.core.publisher.Mono;
 @RestController
 @RequestMapping("/api/registrations")
 public class LineNotifyController {
-  private static final String LINE_NOTIFY_STATE = "LineNotifyController.LINE_NOTIFY_STATE";
-
-  // TODO temp workaround for resolving state mismatched when using `form_post` response.
-  //  key is previous state, value is userId.
-  private static final Map<String, String> STATES = new HashMap<>();
-
   private final LineNotifyService notifyService;
   private final ScheduleManager scheduleManager;
+  private final StateTokenService stateTokenService;
+  private final NotificationQueue notificationQueue;
 
   @GetMapping
   public Mono<List<RegistrationResponse>> list(WebSession session) {
@@ -65,12 +69,29 @@ public class LineNotifyController {
                     .collect(Collectors.toList()));
   }
 
+  /**
+   * Saves, deletes and expiries of the registrations of the user as server-sent events named after
+   * the {@link RegistrationChange.Type}, so the page follows them without listing again.
+   */
+  @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<RegistrationResponse>> changes(WebSession session) {
+    var userId = getUserId(session);
+    return ServerSentEventUtils.withHeartbeat(
+        notifyService
+            .registrationChanges()
+            .filter(change -> userId.equals(change.getRegistrationKey().getUserId()))
+            .map(
+                change ->
+                    ServerSentEvent.builder(RegistrationResponse.of(change))
+                        .event(change.getType().name())
+                        .build()));
+  }
+
   @GetMapping("/register")
   public Mono<Void> register(WebSession session, ServerHttpResponse response) {
-    var state = UUID.randomUUID().toString();
-    session.getAttributes().put(LINE_NOTIFY_STATE, state);
-    STATES.put(state, getUserId(session));
-    var redirectUri = notifyService.getRedirectUri(state);
+    // the user ID travels inside the signed state, the `form_post` callback carries no session cookie
+    var state = stateTokenService.issue(Purpose.LINE_NOTIFY, getUserId(session));
+    var redirectUri = notifyService.getRedirectUri(state.getToken());
     log.debug("redirectUri = {}", redirectUri);
     return RedirectUtils.redirect(response, redirectUri);
   }
@@ -81,7 +102,6 @@ public class LineNotifyController {
       @RequestParam(value = "state", required = false) String state,
       @RequestParam(value = "error", required = false) String errorCode,
       @RequestParam(value = "error_description", required = false) String errorMessage,
-      WebSession session,
       ServerHttpResponse response) {
     if (log.isDebugEnabled()) {
       log.debug("parameter code : {}", code);
@@ -94,24 +114,20 @@ public class LineNotifyController {
       return RedirectUtils.redirect(response, createErrorRedirectUri(errorMessage));
     }
 
-    var prevState = session.<String>getAttribute(LINE_NOTIFY_STATE);
-    var matchSessionState = StringUtils.isNotBlank(state) && StringUtils.equals(state, prevState);
-    if (!STATES.containsKey(state) && !matchSessionState) {
-      log.error("Mismatch state, parameter state : {}, previous state : {}", state, prevState);
+    var verifiedState = stateTokenService.verify(Purpose.LINE_NOTIFY, state);
+    if (verifiedState.isEmpty() || verifiedState.get().getUserId() == null) {
+      log.error("Mismatch state, parameter state : {}", state);
       return RedirectUtils.redirect(response, createErrorRedirectUri());
     }
 
-    session.getAttributes().remove(LINE_NOTIFY_STATE);
     return notifyService
-        .register(STATES.get(state), code)
+        .register(verifiedState.get().getUserId(), code)
         .doOnSuccess(scheduleManager::scheduleCleanup)
-        .then(Mono.fromRunnable(() -> STATES.remove(state)))
         .then(RedirectUtils.redirect(response, "/line-notify"));
   }
 
   @PostMapping("/auth")
-  public Mono<Void> authByPost(
-      WebSession session, ServerWebExchange exchange, ServerHttpResponse response) {
+  public Mono<Void> authByPost(ServerWebExchange exchange, ServerHttpResponse response) {
     return exchange
         .getFormData()
         .flatMap(
@@ -120,24 +136,38 @@ public class LineNotifyController {
               var state = formData.getFirst("state");
               var errorCode = formData.getFirst("error");
               var errorMessage = formData.getFirst("error_description");
-              return auth(code, state, errorCode, errorMessage, session, response);
+              return auth(code, state, errorCode, errorMessage, response);
             });
   }
 
+  /** Accepts the notification into the {@link NotificationQueue}, see {@link #notification}. */
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-  public Mono<ResponseEntity<Void>> notify(
+  public Mono<ResponseEntity<NotifyAcceptedResponse>> notify(
       @RequestBody Mono<NotifyRequest> notifyRequest, WebSession session) {
     return notifyRequest
         .flatMap(
             request -> {
               var registrationKey =
-                  new RegistrationKey()
-                      .setUserId(getUserId(session))
-                      .setTargetType(request.getType())
-                      .setTarget(request.getTarget());
-              return notifyService.notify(registrationKey, request.getMsg());
+                  RegistrationKey.of(getUserId(session), request.getType(), request.getTarget());
+              return notificationQueue.enqueue(registrationKey, request.getMsg());
             })
-        .thenReturn(ResponseEntity.ok().build());
+        .map(
+            id ->
+                ResponseEntity.accepted()
+                    .location(URI.create("/api/registrations/notifications/" + id))
+                    .body(new NotifyAcceptedResponse().setId(id)));
+  }
+
+  /** Delivery of an own notification, pending or completed within the result retention. */
+  @GetMapping("/notifications/{id}")
+  public Mono<ResponseEntity<NotificationResponse>> notification(
+      @PathVariable("id") String id, WebSession session) {
+    var userId = getUserId(session);
+    return notificationQueue
+        .find(id)
+        .filter(notification -> userId.equals(notification.getRegistrationKey().getUserId()))
+        .map(notification -> ResponseEntity.ok(NotificationResponse.of(notification)))
+        .defaultIfEmpty(ResponseEntity.notFound().build());
   }
 
   @DeleteMapping
@@ -145,8 +175,7 @@ public class LineNotifyController {
       @RequestHeader("type") String type,
       @RequestHeader("target") String target,
       WebSession session) {
-    var registrationKey =
-        new RegistrationKey().setUserId(getUserId(session)).setTargetType(type).setTarget(target);
+    var registrationKey = RegistrationKey.of(getUserId(session), type, target);
     log.info("{} revokes registration for {}-{}", registrationKey.getUserId(), type, target);
     return notifyService.revoke(registrationKey).map(unused -> ResponseEntity.noContent().build());
   }
@@ -175,6 +204,41 @@ public class LineNotifyController {
     private String userId;
   }
 
+  @Accessors(chain = true)
+  @Data
+  static class NotifyAcceptedResponse {
+    private String id;
+  }
+
+  @Accessors(chain = true)
+  @Data
+  static class NotificationResponse {
+    private String id;
+    private String userId;
+    private String type;
+    private String target;
+    private Notification.Status status;
+    /** Message returned by LINE Notify, or the error of a failed delivery. */
+    private String result;
+    private Long enqueuedTime;
+    private Long completedTime;
+
+    static NotificationResponse of(Notification notification) {
+      return new NotificationResponse()
+          .setId(notification.getId())
+          .setUserId(notification.getRegistrationKey().getUserId())
+          .setType(notification.getRegistrationKey().getTargetType())
+          .setTarget(notification.getRegistrationKey().getTarget())
+          .setStatus(notification.getStatus())
+          .setResult(notification.getResult())
+          .setEnqueuedTime(notification.getEnqueuedTime().toEpochMilli())
+          .setCompletedTime(
+              Optional.ofNullable(notification.getCompletedTime())
+                  .map(Instant::toEpochMilli)
+                  .orElse(null));
+    }
+  }
+
   @Accessors(chain = true)
   @Data
   static class RegistrationResponse {
@@ -183,5 +247,17 @@ public class LineNotifyController {
     private Long expiryTime;
     private String userId;
     private String userName;
+
+    /** Without user name, and without expiry time unless saved. */
+    static RegistrationResponse of(RegistrationChange change) {
+      return new RegistrationResponse()
+          .setUserId(change.getRegistrationKey().getUserId())
+          .setTargetType(change.getRegistrationKey().getTargetType())
+          .setTarget(change.getRegistrationKey().getTarget())
+          .setExpiryTime(
+              Optional.ofNullable(change.getRegistration())
+                  .map(registration -> registration.getExpiryTime().toEpochMilli())
+                  .orElse(null));
+    }
   }
 }
@@ -0,0 +1,18 @@
+package io.github.coffee0127.oauth2.controller.utils;
+
+import java.time.Duration;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+public class ServerSentEventUtils {
+
+  /** Below the 55 seconds after which the Heroku router closes idle connections. */
+  private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(25);
+
+  /** Interleaves comment lines, so quiet streams are not closed as idle by proxies. */
+  public static <T> Flux<ServerSentEvent<T>> withHeartbeat(Flux<ServerSentEvent<T>> events) {
+    return events.mergeWith(
+        Flux.interval(HEARTBEAT_INTERVAL)
+            .map(tick -> ServerSentEvent.<T>builder().comment("heartbeat").build()));
+  }
+}
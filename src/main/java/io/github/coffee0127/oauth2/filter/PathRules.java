@@ -0,0 +1,122 @@
+package io.github.coffee0127.oauth2.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.http.server.RequestPath;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+/**
+ * Immutable set of path rules compiled once at startup.
+ *
+ * <p>Literal paths such as {@code /login} and prefix rules such as {@code /css/**} are merged into a
+ * character trie, so a lookup walks the request path at most once and allocates nothing. Any other
+ * pattern syntax ({@code *}, {@code ?}, <code>{var}</code>) falls back to a precompiled {@link
+ * PathPattern}.
+ */
+public final class PathRules {
+
+  private static final String SUBTREE_SUFFIX = "/**";
+
+  private final Node root;
+  private final PathPattern[] patterns;
+
+  private PathRules(Node root, PathPattern[] patterns) {
+    this.root = root;
+    this.patterns = patterns;
+  }
+
+  public static PathRules compile(List<String> rules) {
+    var root = new Node();
+    var patterns = new ArrayList<PathPattern>();
+    for (var rule : rules) {
+      if (rule.endsWith(SUBTREE_SUFFIX) && isLiteral(rule, rule.length() - SUBTREE_SUFFIX.length())) {
+        root.insert(rule, rule.length() - SUBTREE_SUFFIX.length()).subtree = true;
+      } else if (isLiteral(rule, rule.length())) {
+        root.insert(rule, rule.length()).exact = true;
+      } else {
+        patterns.add(PathPatternParser.defaultInstance.parse(rule));
+      }
+    }
+    return new PathRules(root, patterns.toArray(new PathPattern[0]));
+  }
+
+  public boolean matches(RequestPath path) {
+    return matchesLiteral(path.value()) || matchesPattern(path);
+  }
+
+  private boolean matchesLiteral(String path) {
+    var node = root;
+    var length = path.length();
+    for (int i = 0; ; i++) {
+      if (node.subtree && (i == length || path.charAt(i) == '/')) {
+        return true;
+      }
+      if (i == length) {
+        return node.exact;
+      }
+      node = node.child(path.charAt(i));
+      if (node == null) {
+        return false;
+      }
+    }
+  }
+
+  private boolean matchesPattern(RequestPath path) {
+    if (patterns.length == 0) {
+      return false;
+    }
+    var container = path.pathWithinApplication();
+    for (var pattern : patterns) {
+      if (pattern.matches(container)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLiteral(String rule, int length) {
+    for (int i = 0; i < length; i++) {
+      var c = rule.charAt(i);
+      if (c == '*' || c == '?' || c == '{') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Trie node; children are few per node, so a linear scan over a packed array is enough. */
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private boolean exact;
+    private boolean subtree;
+
+    private Node child(char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    private Node insert(String rule, int length) {
+      var node = this;
+      for (int i = 0; i < length; i++) {
+        var c = rule.charAt(i);
+        var next = node.child(c);
+        if (next == null) {
+          next = new Node();
+          node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+          node.children = Arrays.copyOf(node.children, node.children.length + 1);
+          node.keys[node.keys.length - 1] = c;
+          node.children[node.children.length - 1] = next;
+        }
+        node = next;
+      }
+      return node;
+    }
+  }
+}
@@ -2,9 +2,14 @@ package io.github.coffee0127.oauth2.filter;
 
 import io.github.coffee0127.oauth2.constant.OAuth2;
 import io.github.coffee0127.oauth2.controller.utils.RedirectUtils;
-import java.util.Set;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.server.ServerWebExchange;
 import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
@@ -14,31 +19,56 @@ import reactor.core.publisher.Mono;
 @Component
 public class SecurityFilter implements WebFilter {
 
-  private static final Set<String> EXCLUDES =
-      Set.of(
-          "/(css|img|js)/.*",
-          "/login",
-          "/unauthorized",
-          "/api/line/(login|auth)",
-          "/api/registrations/auth");
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  private final PathRules publicPaths;
+  private final PathRules scrapePaths;
+  private final byte[] scrapeToken;
+
+  public SecurityFilter(SecurityFilterProperties properties) {
+    this.publicPaths = PathRules.compile(properties.getPublicPaths());
+    var scrape = properties.getScrape();
+    this.scrapePaths = PathRules.compile(scrape.getPaths());
+    this.scrapeToken =
+        StringUtils.hasText(scrape.getToken())
+            ? scrape.getToken().getBytes(StandardCharsets.UTF_8)
+            : null;
+  }
 
   @Override
   public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
     var path = exchange.getRequest().getPath();
-    for (String exclude : EXCLUDES) {
-      if (path.value().matches(exclude)) {
-        return chain.filter(exchange);
-      }
+    if (publicPaths.matches(path)) {
+      return chain.filter(exchange);
+    }
+    if (scrapePaths.matches(path) && hasScrapeToken(exchange)) {
+      return chain.filter(exchange);
     }
     return exchange
         .getSession()
         .flatMap(
             session -> {
-              if (session.getAttribute(OAuth2.USER_PRINCIPAL) == null) {
+              var userPrincipal = session.<UserPrincipal>getAttribute(OAuth2.USER_PRINCIPAL);
+              if (userPrincipal == null || isExpired(userPrincipal)) {
                 log.warn("Unauthorized to access {}", path);
                 return RedirectUtils.redirect(exchange.getResponse(), "/unauthorized");
               }
               return chain.filter(exchange);
             });
   }
+
+  /** Kept valid by the LoginTokenManager while the session is in use. */
+  private static boolean isExpired(UserPrincipal userPrincipal) {
+    var expiryTime = userPrincipal.getExpiryTime();
+    return expiryTime != null && expiryTime.isBefore(Instant.now());
+  }
+
+  private boolean hasScrapeToken(ServerWebExchange exchange) {
+    var authorization = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+    if (scrapeToken == null || authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+      return false;
+    }
+    var credential = authorization.substring(BEARER_PREFIX.length());
+    return MessageDigest.isEqual(scrapeToken, credential.getBytes(StandardCharsets.UTF_8));
+  }
 }
@@ -0,0 +1,29 @@
+package io.github.coffee0127.oauth2.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties("security")
+public class SecurityFilterProperties {
+
+  /** Paths served without a logged in user, either literals, {@code /prefix/**} or path patterns. */
+  private List<String> publicPaths = new ArrayList<>();
+
+  private Scrape scrape = new Scrape();
+
+  /** Lets a metrics scraper in with a bearer token instead of a login session. */
+  @Data
+  public static class Scrape {
+
+    /** Paths accepting the token, same syntax as {@link #publicPaths}. */
+    private List<String> paths = new ArrayList<>();
+
+    /** Expected {@code Authorization: Bearer} credential, blank disables token access. */
+    private String token;
+  }
+}
@@ -0,0 +1,73 @@
+package io.github.coffee0127.oauth2.filter;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.resource.ResourceUrlProvider;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Links templates to the content hashed URLs of static resources ({@code
+ * spring.web.resources.chain.strategy.content}) and lets browsers keep the responses to those URLs
+ * for good, as a change of the content changes the URL.
+ */
+@Slf4j
+@Component
+public class StaticResourceFilter implements WebFilter {
+
+  /** Hash inserted into file names by the content version strategy. */
+  private static final Pattern CONTENT_HASH = Pattern.compile("-[0-9a-f]{32}\\.[^/]+$");
+
+  /** {@link CacheControl} of Spring 5.3 does not know {@code immutable} yet. */
+  private static final String IMMUTABLE =
+      CacheControl.maxAge(Duration.ofDays(365)).cachePublic().getHeaderValue() + ", immutable";
+
+  private final ResourceUrlProvider resourceUrlProvider;
+
+  public StaticResourceFilter(ResourceUrlProvider resourceUrlProvider) {
+    this.resourceUrlProvider = resourceUrlProvider;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    exchange.addUrlTransformer(url -> transform(url, exchange));
+    if (CONTENT_HASH.matcher(exchange.getRequest().getPath().value()).find()) {
+      var response = exchange.getResponse();
+      response.beforeCommit(
+          () -> {
+            var status = response.getStatusCode();
+            if (status == null || status == HttpStatus.OK || status == HttpStatus.NOT_MODIFIED) {
+              response.getHeaders().set(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+            }
+            return Mono.empty();
+          });
+    }
+    return chain.filter(exchange);
+  }
+
+  /**
+   * Keeps {@code url} when it is no static resource, its hash is not known yet or could not be
+   * computed: resources in the jar are hashed synchronously, resources in a directory are read
+   * asynchronously and link hashed once the resource chain cached their hash.
+   */
+  private String transform(String url, ServerWebExchange exchange) {
+    var resolved =
+        resourceUrlProvider
+            .getForUriString(url, exchange)
+            .onErrorResume(
+                throwable -> {
+                  log.debug("Link {} without its hash, the lookup failed", url, throwable);
+                  return Mono.empty();
+                })
+            .toFuture()
+            .getNow(null);
+    return resolved != null ? resolved : url;
+  }
+}
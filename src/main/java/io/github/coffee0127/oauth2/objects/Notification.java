@@ -0,0 +1,39 @@
+package io.github.coffee0127.oauth2.objects;
+
+import java.time.Instant;
+import lombok.Value;
+import lombok.With;
+
+/** A message to a registration and the outcome of sending it. */
+@Value(staticConstructor = "of")
+@With
+public class Notification {
+
+  String id;
+
+  RegistrationKey registrationKey;
+
+  /** Text to send, only kept while {@link Status#PENDING}. */
+  String message;
+
+  Status status;
+
+  /** Message returned by LINE Notify, or the error of a failed delivery. */
+  String result;
+
+  Instant enqueuedTime;
+
+  Instant completedTime;
+
+  /** A notification not accepted yet, without ID and timestamps. */
+  public static Notification of(RegistrationKey registrationKey, String message) {
+    return of(null, registrationKey, message, Status.PENDING, null, null, null);
+  }
+
+  public enum Status {
+    PENDING,
+    SENT,
+    SKIPPED,
+    FAILED
+  }
+}
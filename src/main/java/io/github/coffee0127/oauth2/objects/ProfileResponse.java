@@ -0,0 +1,15 @@
+package io.github.coffee0127.oauth2.objects;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Data;
+
+/** User profile of the LINE Login social API, which names its fields in camel case. */
+@Data
+@JsonNaming(PropertyNamingStrategies.LowerCamelCaseStrategy.class)
+public class ProfileResponse {
+  private String userId;
+  private String displayName;
+  private String pictureUrl;
+  private String statusMessage;
+}
@@ -1,28 +1,33 @@
 package io.github.coffee0127.oauth2.objects;
 
+import java.time.Duration;
 import java.time.Instant;
-import lombok.Data;
+import lombok.Value;
+import lombok.With;
 
-@Data
+/** Immutable, so the stores hand out their instances without copying them. */
+@Value(staticConstructor = "of")
+@With
 public class Registration {
 
-  private final RegistrationKey registrationKey;
+  /** Registrations are revoked automatically once they are this old. */
+  public static final Duration LIFETIME = Duration.ofHours(1);
 
-  private final String accessToken;
+  RegistrationKey registrationKey;
 
-  private Instant createTime;
+  String accessToken;
 
-  private Instant expiryTime;
+  Instant createTime;
 
-  public Registration(RegistrationKey registrationKey, String accessToken) {
-    this.registrationKey = registrationKey;
-    this.accessToken = accessToken;
+  Instant expiryTime;
+
+  /** A registration not stored yet, without timestamps. */
+  public static Registration of(RegistrationKey registrationKey, String accessToken) {
+    return of(registrationKey, accessToken, null, null);
   }
 
-  public Registration(Registration registration) {
-    this.registrationKey = new RegistrationKey(registration.registrationKey);
-    this.accessToken = registration.accessToken;
-    this.createTime = registration.createTime;
-    this.expiryTime = registration.expiryTime;
+  /** This registration as stored at {@code createTime}, expiring after {@link #LIFETIME}. */
+  public Registration createdAt(Instant createTime) {
+    return of(registrationKey, accessToken, createTime, createTime.plus(LIFETIME));
   }
 }
@@ -0,0 +1,31 @@
+package io.github.coffee0127.oauth2.objects;
+
+import lombok.Value;
+
+/** A registration stored or removed by a {@code RegistrationDao}. */
+@Value(staticConstructor = "of")
+public class RegistrationChange {
+
+  Type type;
+
+  RegistrationKey registrationKey;
+
+  /** The stored registration, {@code null} unless {@link Type#SAVED}. */
+  Registration registration;
+
+  public static RegistrationChange saved(Registration registration) {
+    return of(Type.SAVED, registration.getRegistrationKey(), registration);
+  }
+
+  public static RegistrationChange removed(Type type, RegistrationKey registrationKey) {
+    return of(type, registrationKey, null);
+  }
+
+  public enum Type {
+    SAVED,
+    /** Revoked by its user. */
+    DELETED,
+    /** Removed after reaching its expiry time. */
+    EXPIRED
+  }
+}
@@ -1,23 +1,16 @@
 package io.github.coffee0127.oauth2.objects;
 
-import lombok.Data;
-import lombok.experimental.Accessors;
+import lombok.Value;
+import lombok.With;
 
-@Accessors(chain = true)
-@Data
+/** Immutable, so instances are shared between the stores, indexes and callers. */
+@Value(staticConstructor = "of")
+@With
 public class RegistrationKey {
 
-  private String userId;
+  String userId;
 
-  private String targetType;
+  String targetType;
 
-  private String target;
-
-  public RegistrationKey() {}
-
-  public RegistrationKey(RegistrationKey registrationKey) {
-    this.userId = registrationKey.userId;
-    this.targetType = registrationKey.targetType;
-    this.target = registrationKey.target;
-  }
+  String target;
 }
@@ -3,6 +3,7 @@ package io.github.coffee0127.oauth2.objects;
 import java.time.Instant;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.With;
 
 @Data
 @AllArgsConstructor
@@ -10,7 +11,8 @@ public class UserPrincipal {
   private final String issuer;
   private final String userId;
   private final String channelId;
-  private final Instant expiryTime;
+  /** The session of this user is signed out from then on. */
+  @With private final Instant expiryTime;
   private final Instant issuedTime;
   private final String nonce;
   private final String name;
@@ -1,32 +1,68 @@
 package io.github.coffee0127.oauth2.service;
 
 import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
 import io.github.coffee0127.oauth2.service.client.LineNotifyClient;
 import io.github.coffee0127.oauth2.service.dao.RegistrationDao;
 import java.net.URI;
+import java.time.Duration;
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-@AllArgsConstructor
 @Slf4j
 @Service
 public class LineNotifyService {
 
   private final LineNotifyClient client;
   private final RegistrationDao dao;
+  private final ScheduleManager scheduleManager;
+  private final NotificationCoalescer coalescer;
+
+  public LineNotifyService(
+      LineNotifyClient client,
+      RegistrationDao dao,
+      ScheduleManager scheduleManager,
+      @Value("${line.notify.coalesce.enabled:false}") boolean coalesce,
+      @Value("${line.notify.coalesce.window:300ms}") Duration coalesceWindow,
+      @Value("${line.notify.coalesce.maxLength:1000}") int maxMessageLength) {
+    this.client = client;
+    this.dao = dao;
+    this.scheduleManager = scheduleManager;
+    this.coalescer =
+        coalesce
+            ? new NotificationCoalescer(coalesceWindow, maxMessageLength, this::sendNow)
+            : null;
+  }
 
   public Mono<List<Registration>> findRegistrations() {
     return dao.findAll();
   }
 
+  public Flux<Registration> findRegistrationPage(RegistrationKey after, int limit) {
+    return dao.findPage(after, limit);
+  }
+
   public Mono<List<Registration>> findRegistrations(String userId) {
     return dao.find(userId);
   }
 
+  public Mono<List<Registration>> findRegistrationsByTargetType(String targetType) {
+    return dao.findByTargetType(targetType);
+  }
+
+  public Mono<List<Registration>> findRegistrationsByTarget(String target) {
+    return dao.findByTarget(target);
+  }
+
+  public Flux<RegistrationChange> registrationChanges() {
+    return dao.changes();
+  }
+
   public URI getRedirectUri(String state) {
     return client.getRedirectUri(state);
   }
@@ -41,21 +77,36 @@ public class LineNotifyService {
                     .getStatus(accessToken)
                     .map(
                         registrationKey ->
-                            new Registration(registrationKey.setUserId(userId), accessToken))
+                            Registration.of(registrationKey.withUserId(userId), accessToken))
                     .flatMap(dao::save));
   }
 
-  public Mono<Void> notify(RegistrationKey registrationKey, String message) {
+  /**
+   * Sends a notification and emits the message returned by LINE Notify, or completes empty when
+   * there is no such registration or LINE Notify did not accept the message.
+   *
+   * <p>With {@code line.notify.coalesce.enabled}, messages to the same registration within {@code
+   * line.notify.coalesce.window} are sent together, see {@link NotificationCoalescer}.
+   */
+  public Mono<String> send(RegistrationKey registrationKey, String message) {
+    return coalescer == null
+        ? sendNow(registrationKey, message)
+        : coalescer.submit(registrationKey, message);
+  }
+
+  private Mono<String> sendNow(RegistrationKey registrationKey, String message) {
     return dao.findOne(registrationKey)
         .map(Registration::getAccessToken)
-        .flatMap(accessToken -> client.notify(accessToken, message))
-        .then();
+        .flatMap(accessToken -> client.notify(accessToken, message));
   }
 
   public Mono<Void> revoke(RegistrationKey registrationKey) {
     return dao.findOne(registrationKey)
         .map(Registration::getAccessToken)
         .flatMap(client::revokeAccessToken)
-        .flatMap(unused -> dao.delete(registrationKey));
+        .flatMap(
+            unused ->
+                dao.delete(registrationKey)
+                    .doOnSuccess(done -> scheduleManager.cancelCleanup(registrationKey)));
   }
 }
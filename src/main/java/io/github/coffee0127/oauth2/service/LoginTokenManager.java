@@ -0,0 +1,243 @@
+package io.github.coffee0127.oauth2.service;
+
+import io.github.coffee0127.oauth2.constant.OAuth2;
+import io.github.coffee0127.oauth2.objects.AccessTokenResponse;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import io.github.coffee0127.oauth2.service.client.LineClient;
+import io.github.coffee0127.oauth2.service.dao.UserDao;
+import io.github.coffee0127.oauth2.service.scheduler.TimingWheel;
+import io.github.coffee0127.oauth2.service.session.CompactWebSessionStore;
+import io.github.coffee0127.oauth2.service.scheduler.TimingWheel.Timeout;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Keeps the LINE Login tokens of signed-in users valid. A token is refreshed with its refresh token
+ * {@code line.login.token.refreshAhead} before it expires, and the profile of the user in the
+ * {@link UserDao} is reloaded along with it. Both are written back to the web session, which thereby
+ * stays signed in past the original expiry of the token.
+ *
+ * <p>Tokens are kept per web session, so every browser a user signs in from keeps its own token.
+ * Only sessions still found in the shared session store are refreshed, the tokens of sessions that
+ * timed out on every node are dropped when due. A failed refresh is retried every {@code
+ * line.login.token.retryInterval} until the token expires.
+ */
+@Slf4j
+@Service
+public class LoginTokenManager {
+
+  private static final Duration TICK = Duration.ofSeconds(1);
+  private static final int WHEEL_SIZE = 64;
+  private static final int LEVELS = 4;
+
+  private final LineClient client;
+  private final UserDao userDao;
+  private final CompactWebSessionStore sessionStore;
+  private final Duration refreshAhead;
+  private final Duration retryInterval;
+
+  private final Map<String, TrackedToken> tokens = new ConcurrentHashMap<>();
+  private final Scheduler scheduler;
+  private final TimingWheel<TrackedToken> timingWheel;
+  private final Counter refreshed;
+  private final Counter failed;
+
+  public LoginTokenManager(
+      LineClient client,
+      UserDao userDao,
+      CompactWebSessionStore sessionStore,
+      MeterRegistry meterRegistry,
+      @Value("${line.login.token.refreshAhead:1h}") Duration refreshAhead,
+      @Value("${line.login.token.retryInterval:1m}") Duration retryInterval) {
+    this.client = client;
+    this.userDao = userDao;
+    this.sessionStore = sessionStore;
+    this.refreshAhead = refreshAhead;
+    this.retryInterval = retryInterval;
+    this.scheduler = Schedulers.newSingle("login-token-refresh", true);
+    this.timingWheel =
+        new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, scheduler, this::refresh).start();
+    Gauge.builder("line.login.token.tracked", tokens, Map::size)
+        .description("LINE Login tokens kept valid in the background")
+        .register(meterRegistry);
+    this.refreshed =
+        Counter.builder("line.login.token.refreshes")
+            .description("Background refreshes of LINE Login tokens")
+            .tag("outcome", "success")
+            .register(meterRegistry);
+    this.failed =
+        Counter.builder("line.login.token.refreshes")
+            .description("Background refreshes of LINE Login tokens")
+            .tag("outcome", "failure")
+            .register(meterRegistry);
+  }
+
+  /** Starts keeping the token of a session that just signed in, replacing an earlier one. */
+  public void track(String sessionId, AccessTokenResponse token) {
+    if (token.getExpiresIn() == null || token.getRefreshToken() == null) {
+      return;
+    }
+    var tracked = new TrackedToken(sessionId);
+    tracked.update(token);
+    tokens.compute(
+        sessionId,
+        (key, previous) -> {
+          if (previous != null) {
+            previous.timeout.cancel();
+          }
+          tracked.timeout = timingWheel.schedule(tracked, tracked.expiryTime.minus(refreshAhead));
+          return tracked;
+        });
+  }
+
+  /**
+   * Stops keeping the token of a session that signs out.
+   *
+   * @return the current access token of the session, if it is kept on this node
+   */
+  public Optional<String> release(String sessionId) {
+    var tracked = tokens.remove(sessionId);
+    if (tracked == null) {
+      return Optional.empty();
+    }
+    tracked.timeout.cancel();
+    return Optional.of(tracked.token.getAccessToken());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timingWheel.dispose();
+    scheduler.dispose();
+  }
+
+  private void refresh(TrackedToken tracked) {
+    var sessionId = tracked.sessionId;
+    if (tokens.get(sessionId) != tracked) {
+      return;
+    }
+    sessionStore
+        .retrieveSession(sessionId)
+        .filter(session -> session.getAttribute(OAuth2.USER_PRINCIPAL) != null)
+        .switchIfEmpty(
+            Mono.fromRunnable(
+                () -> {
+                  log.debug("Drop LINE Login token of ended session {}", sessionId);
+                  tokens.remove(sessionId, tracked);
+                }))
+        .flatMap(
+            session ->
+                client
+                    .refreshAccessToken(tracked.token.getRefreshToken())
+                    .flatMap(
+                        token ->
+                            refreshProfile(session.getAttribute(OAuth2.USER_PRINCIPAL), token)
+                                .flatMap(user -> store(tracked, session, token, user))))
+        .subscribe(
+            null,
+            throwable -> {
+              failed.increment();
+              var retryTime = Instant.now().plus(retryInterval);
+              if (retryTime.isBefore(tracked.expiryTime)) {
+                log.warn(
+                    "Cannot refresh LINE Login token of session {}, retry at {}: {}",
+                    sessionId,
+                    retryTime,
+                    throwable.toString());
+                tokens.computeIfPresent(
+                    sessionId,
+                    (key, value) -> {
+                      if (value == tracked) {
+                        tracked.timeout = timingWheel.schedule(tracked, retryTime);
+                      }
+                      return value;
+                    });
+              } else {
+                log.warn(
+                    "Cannot refresh LINE Login token of session {} before it expires: {}",
+                    sessionId,
+                    throwable.toString());
+                tokens.remove(sessionId, tracked);
+              }
+            });
+  }
+
+  private Mono<UserPrincipal> refreshProfile(UserPrincipal user, AccessTokenResponse token) {
+    return client
+        .getProfile(token.getAccessToken())
+        .flatMap(
+            profile -> {
+              var now = Instant.now();
+              return userDao.save(
+                  new UserPrincipal(
+                      user.getIssuer(),
+                      user.getUserId(),
+                      user.getChannelId(),
+                      now.plusSeconds(token.getExpiresIn()),
+                      now,
+                      user.getNonce(),
+                      profile.getDisplayName(),
+                      profile.getPictureUrl()));
+            });
+  }
+
+  /** Keeps the refreshed token and profile in the session, unless it signed out meanwhile. */
+  private Mono<Void> store(
+      TrackedToken tracked, WebSession session, AccessTokenResponse token, UserPrincipal user) {
+    var current =
+        tokens.computeIfPresent(
+            tracked.sessionId,
+            (key, value) -> {
+              if (value == tracked) {
+                tracked.update(token);
+                tracked.timeout =
+                    timingWheel.schedule(tracked, tracked.expiryTime.minus(refreshAhead));
+              }
+              return value;
+            });
+    if (current != tracked) {
+      // nobody will revoke this token otherwise
+      return client.revoke(token.getAccessToken()).onErrorResume(e -> Mono.empty()).then();
+    }
+    refreshed.increment();
+    log.debug(
+        "Refreshed LINE Login token of session {} until {}", tracked.sessionId, tracked.expiryTime);
+    session.getAttributes().put(OAuth2.LINE_ACCESS_TOKEN, token);
+    session.getAttributes().put(OAuth2.USER_PRINCIPAL, user);
+    return sessionStore.update(session);
+  }
+
+  /** The token of one signed-in session, replaced by the next sign-in of the same session. */
+  private static final class TrackedToken {
+    private final String sessionId;
+    private volatile AccessTokenResponse token;
+    private volatile Instant expiryTime;
+    private volatile Timeout<TrackedToken> timeout;
+
+    private TrackedToken(String sessionId) {
+      this.sessionId = sessionId;
+    }
+
+    private void update(AccessTokenResponse token) {
+      if (token.getRefreshToken() == null) {
+        // the refresh token stays the same unless a new one is issued
+        token.setRefreshToken(this.token.getRefreshToken());
+      }
+      this.token = token;
+      this.expiryTime = Instant.now().plusSeconds(token.getExpiresIn());
+    }
+  }
+}
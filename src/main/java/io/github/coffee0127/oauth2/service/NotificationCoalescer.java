@@ -0,0 +1,109 @@
+package io.github.coffee0127.oauth2.service;
+
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Merges messages to the same registration within a window into as few notifications as fit the
+ * message length limit of LINE Notify, joined by line breaks. Every submitted message completes
+ * with the outcome of the notification carrying it.
+ */
+@Slf4j
+class NotificationCoalescer {
+
+  private static final String SEPARATOR = "\n";
+
+  private final Map<RegistrationKey, Batch> batches = new ConcurrentHashMap<>();
+  private final long windowMillis;
+  private final int maxLength;
+  private final BiFunction<RegistrationKey, String, Mono<String>> sender;
+
+  /** @param sender sends one notification, see {@link LineNotifyService#send} */
+  NotificationCoalescer(
+      Duration window, int maxLength, BiFunction<RegistrationKey, String, Mono<String>> sender) {
+    this.windowMillis = window.toMillis();
+    this.maxLength = maxLength;
+    this.sender = sender;
+  }
+
+  Mono<String> submit(RegistrationKey registrationKey, String message) {
+    return Mono.create(
+        sink ->
+            batches.compute(
+                registrationKey,
+                (key, batch) -> {
+                  if (batch == null) {
+                    var created = new Batch();
+                    Schedulers.parallel()
+                        .schedule(() -> flush(key, created), windowMillis, TimeUnit.MILLISECONDS);
+                    batch = created;
+                  }
+                  batch.messages.add(message);
+                  batch.sinks.add(sink);
+                  return batch;
+                }));
+  }
+
+  private void flush(RegistrationKey registrationKey, Batch batch) {
+    // later messages to the same registration start a new batch from here on
+    batches.remove(registrationKey, batch);
+    var chunks = split(batch);
+    if (chunks.size() < batch.messages.size()) {
+      log.debug(
+          "Coalesced {} messages to {} into {} notifications",
+          batch.messages.size(),
+          registrationKey,
+          chunks.size());
+    }
+    Flux.fromIterable(chunks)
+        .concatMap(
+            chunk ->
+                sender
+                    .apply(registrationKey, chunk.text.toString())
+                    .doOnSuccess(result -> chunk.sinks.forEach(sink -> sink.success(result)))
+                    .doOnError(throwable -> chunk.sinks.forEach(sink -> sink.error(throwable)))
+                    .onErrorResume(throwable -> Mono.empty()))
+        .subscribe();
+  }
+
+  /** Packs messages in order into chunks of at most {@code maxLength}, never splitting one. */
+  private List<Chunk> split(Batch batch) {
+    var chunks = new ArrayList<Chunk>();
+    Chunk chunk = null;
+    for (var i = 0; i < batch.messages.size(); i++) {
+      var message = batch.messages.get(i);
+      if (chunk == null
+          || chunk.text.length() + SEPARATOR.length() + message.length() > maxLength) {
+        chunk = new Chunk();
+        chunks.add(chunk);
+      } else {
+        chunk.text.append(SEPARATOR);
+      }
+      chunk.text.append(message);
+      chunk.sinks.add(batch.sinks.get(i));
+    }
+    return chunks;
+  }
+
+  /** Messages collected for one registration, only modified while mapped in {@link #batches}. */
+  private static final class Batch {
+    private final List<String> messages = new ArrayList<>();
+    private final List<MonoSink<String>> sinks = new ArrayList<>();
+  }
+
+  private static final class Chunk {
+    private final StringBuilder text = new StringBuilder();
+    private final List<MonoSink<String>> sinks = new ArrayList<>();
+  }
+}
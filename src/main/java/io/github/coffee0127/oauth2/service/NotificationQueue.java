@@ -0,0 +1,309 @@
+package io.github.coffee0127.oauth2.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.coffee0127.oauth2.objects.Notification;
+import io.github.coffee0127.oauth2.objects.Notification.Status;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import io.github.coffee0127.oauth2.service.dao.file.AppendOnlyLog;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+/**
+ * Outbound notifications, accepted once written ahead to an {@link AppendOnlyLog} on local disk and
+ * sent by at most {@code line.notify.queue.concurrency} workers. Notifications still pending at
+ * shutdown are sent after the next start.
+ *
+ * <p>At most {@code line.notify.queue.capacity} notifications are pending, further ones are
+ * rejected with {@link QueueFullException} until the workers catch up. Outcomes can be looked up by
+ * ID for {@code line.notify.queue.resultTtl}.
+ */
+@Slf4j
+@Service
+public class NotificationQueue {
+
+  private static final byte PENDING_RECORD = 1;
+  private static final byte COMPLETED_RECORD = 2;
+
+  private final LineNotifyService notifyService;
+  private final AppendOnlyLog journal;
+  private final int capacity;
+
+  private final Map<String, Notification> pending = new ConcurrentHashMap<>();
+  private final Cache<String, Notification> completed;
+  /** Pending notifications plus those being accepted, never above {@link #capacity}. */
+  private final AtomicInteger reserved = new AtomicInteger();
+
+  private final AtomicLong sequence = new AtomicLong();
+  private final Sinks.Many<Notification> accepted = Sinks.many().unicast().onBackpressureBuffer();
+  private final Disposable workers;
+
+  public NotificationQueue(
+      LineNotifyService notifyService,
+      MeterRegistry meterRegistry,
+      @Value("${line.notify.queue.directory:${registration.store.directory:data}}") Path directory,
+      @Value("${line.notify.queue.regionSize:16MB}") DataSize regionSize,
+      @Value("${line.notify.queue.compactionThreshold:100000}") long compactionThreshold,
+      @Value("${line.notify.queue.capacity:10000}") int capacity,
+      @Value("${line.notify.queue.concurrency:16}") int concurrency,
+      @Value("${line.notify.queue.resultTtl:1h}") Duration resultTtl)
+      throws IOException {
+    this.notifyService = notifyService;
+    this.capacity = capacity;
+    this.completed =
+        Caffeine.newBuilder().expireAfterWrite(resultTtl).maximumSize(capacity * 10L).build();
+    this.journal =
+        new AppendOnlyLog(
+            directory,
+            "notifications",
+            (int) regionSize.toBytes(),
+            compactionThreshold,
+            this::snapshot);
+    journal.open(this::replay);
+    reserved.set(pending.size());
+    this.workers = accepted.asFlux().flatMap(this::deliver, concurrency).subscribe();
+    if (!pending.isEmpty()) {
+      log.info("Resume {} pending notifications", pending.size());
+      pending.values().forEach(this::dispatch);
+    }
+    Gauge.builder("line.notify.queue.pending", pending, Map::size)
+        .description("Accepted notifications not sent yet")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Accepts a notification once it is on disk.
+   *
+   * @return ID of the accepted notification, or {@link QueueFullException}
+   */
+  public Mono<String> enqueue(RegistrationKey registrationKey, String message) {
+    return enqueueAll(List.of(Notification.of(registrationKey, message))).map(ids -> ids.get(0));
+  }
+
+  /** Accepts all notifications or, when they do not fit into the queue, none of them. */
+  public Mono<List<String>> enqueueAll(List<Notification> notifications) {
+    return Mono.defer(
+        () -> {
+          if (reserved.addAndGet(notifications.size()) > capacity) {
+            reserved.addAndGet(-notifications.size());
+            return Mono.error(new QueueFullException(capacity));
+          }
+          var now = Instant.now();
+          var batch =
+              notifications.stream()
+                  .map(
+                      notification ->
+                          notification
+                              .withId(nextId())
+                              .withStatus(Status.PENDING)
+                              .withEnqueuedTime(now))
+                  .collect(Collectors.toList());
+          var appended = 0;
+          try {
+            for (var pendingNotification : batch) {
+              // pending first, so a compaction right after the append still snapshots it
+              pending.put(pendingNotification.getId(), pendingNotification);
+              journal.append(encode(pendingNotification));
+              appended++;
+            }
+          } catch (RuntimeException e) {
+            // none of the notifications is accepted
+            var notAppended = batch.subList(appended, batch.size());
+            notAppended.forEach(notification -> pending.remove(notification.getId()));
+            reserved.addAndGet(-notAppended.size());
+            try {
+              reject(batch.subList(0, appended), e);
+            } catch (RuntimeException rejectFailure) {
+              // e.g. the journal is closed, so the appended records do not reach the disk either
+              e.addSuppressed(rejectFailure);
+            }
+            throw e;
+          }
+          return journal
+              .flush()
+              .doOnError(throwable -> reject(batch, throwable))
+              .then(
+                  Mono.fromSupplier(
+                      () -> {
+                        batch.forEach(this::dispatch);
+                        return batch.stream()
+                            .map(Notification::getId)
+                            .collect(Collectors.toList());
+                      }));
+        });
+  }
+
+  /**
+   * Withdraws notifications that were not accepted: should their records reach the disk after all,
+   * the failed outcomes written behind them keep the replay from sending them.
+   */
+  private void reject(List<Notification> batch, Throwable throwable) {
+    batch.forEach(notification -> pending.remove(notification.getId()));
+    reserved.addAndGet(-batch.size());
+    var failedTime = Instant.now();
+    for (var notification : batch) {
+      journal.append(
+          encode(
+              notification
+                  .withMessage(null)
+                  .withStatus(Status.FAILED)
+                  .withResult(throwable.getMessage())
+                  .withCompletedTime(failedTime)));
+    }
+  }
+
+  /** @return the notification, pending or completed within {@code resultTtl} */
+  public Mono<Notification> find(String id) {
+    var notification = pending.get(id);
+    return Mono.justOrEmpty(notification != null ? notification : completed.getIfPresent(id));
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    workers.dispose();
+    journal.close();
+  }
+
+  private Mono<Void> deliver(Notification notification) {
+    return notifyService
+        .send(notification.getRegistrationKey(), notification.getMessage())
+        .map(result -> notification.withStatus(Status.SENT).withResult(result))
+        .defaultIfEmpty(notification.withStatus(Status.SKIPPED))
+        .onErrorResume(
+            throwable ->
+                Mono.just(
+                    notification.withStatus(Status.FAILED).withResult(throwable.getMessage())))
+        .doOnNext(this::complete)
+        .then();
+  }
+
+  private void complete(Notification notification) {
+    var done = notification.withMessage(null).withCompletedTime(Instant.now());
+    completed.put(done.getId(), done);
+    pending.remove(done.getId());
+    reserved.decrementAndGet();
+    // not flushed: after a crash before the next group commit it is sent once more
+    journal.append(encode(done));
+  }
+
+  private void dispatch(Notification notification) {
+    accepted.emitNext(
+        notification, (signalType, emitResult) -> emitResult == EmitResult.FAIL_NON_SERIALIZED);
+  }
+
+  private String nextId() {
+    return Long.toString(System.currentTimeMillis(), 36)
+        + "-"
+        + Long.toString(sequence.incrementAndGet(), 36);
+  }
+
+  private void replay(ByteBuffer record) {
+    var notification = decode(record);
+    if (notification.getStatus() == Status.PENDING) {
+      pending.put(notification.getId(), notification);
+    } else {
+      pending.remove(notification.getId());
+      completed.put(notification.getId(), notification);
+    }
+  }
+
+  /** Called on the log writer thread. */
+  private Iterable<byte[]> snapshot() {
+    return Stream.concat(completed.asMap().values().stream(), pending.values().stream())
+        .map(NotificationQueue::encode)
+        .collect(Collectors.toList());
+  }
+
+  private static byte[] encode(Notification notification) {
+    var bytes = new ByteArrayOutputStream(128);
+    try (var out = new DataOutputStream(bytes)) {
+      var registrationKey = notification.getRegistrationKey();
+      var isPending = notification.getStatus() == Status.PENDING;
+      out.writeByte(isPending ? PENDING_RECORD : COMPLETED_RECORD);
+      writeString(out, notification.getId());
+      writeString(out, registrationKey.getUserId());
+      writeString(out, registrationKey.getTargetType());
+      writeString(out, registrationKey.getTarget());
+      out.writeLong(notification.getEnqueuedTime().toEpochMilli());
+      if (isPending) {
+        writeString(out, notification.getMessage());
+      } else {
+        out.writeByte(notification.getStatus().ordinal());
+        writeString(out, notification.getResult());
+        out.writeLong(notification.getCompletedTime().toEpochMilli());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Notification decode(ByteBuffer record) {
+    var type = record.get();
+    var id = readString(record);
+    var registrationKey =
+        RegistrationKey.of(readString(record), readString(record), readString(record));
+    var enqueuedTime = Instant.ofEpochMilli(record.getLong());
+    if (type == PENDING_RECORD) {
+      return Notification.of(
+          id, registrationKey, readString(record), Status.PENDING, null, enqueuedTime, null);
+    }
+    var status = Status.values()[record.get()];
+    var result = readString(record);
+    var completedTime = Instant.ofEpochMilli(record.getLong());
+    return Notification.of(id, registrationKey, null, status, result, enqueuedTime, completedTime);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    var length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    var bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
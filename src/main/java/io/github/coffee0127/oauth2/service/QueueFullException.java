@@ -0,0 +1,19 @@
+package io.github.coffee0127.oauth2.service;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class QueueFullException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int capacity;
+
+  public QueueFullException(int capacity) {
+    super("Notification queue is full with " + capacity + " pending notifications");
+    this.capacity = capacity;
+  }
+}
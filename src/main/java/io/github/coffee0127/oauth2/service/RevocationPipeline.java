@@ -0,0 +1,133 @@
+package io.github.coffee0127.oauth2.service;
+
+import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import io.github.coffee0127.oauth2.service.client.LineNotifyClient;
+import io.github.coffee0127.oauth2.service.dao.RegistrationDao;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+/**
+ * Collects expired registrations into short windows and drains each window through a bounded
+ * number of concurrent revoke calls, followed by a single batched delete. Each window first claims
+ * its registrations in the store, so an instance revokes only those no other instance claimed.
+ *
+ * <p>Registrations whose revoke or delete failed are kept in the store and reported through {@link
+ * #failures()}, so they can be tried again.
+ */
+@Slf4j
+@Component
+public class RevocationPipeline {
+
+  private final RegistrationDao dao;
+  private final LineNotifyClient lineNotifyClient;
+  private final int concurrency;
+  private final Duration claimTimeout;
+  private final Sinks.Many<Registration> expirations;
+  private final Sinks.Many<Registration> failures = Sinks.many().unicast().onBackpressureBuffer();
+  private final Disposable subscription;
+
+  public RevocationPipeline(
+      RegistrationDao dao,
+      LineNotifyClient lineNotifyClient,
+      @Value("${line.notify.revocation.window:1s}") Duration window,
+      @Value("${line.notify.revocation.batchSize:500}") int batchSize,
+      @Value("${line.notify.revocation.concurrency:8}") int concurrency,
+      // a claim lapses by the earliest retry of a failed revoke, so the retry can claim it again
+      @Value("${line.notify.revocation.minRetryDelay:30s}") Duration claimTimeout) {
+    this.dao = dao;
+    this.lineNotifyClient = lineNotifyClient;
+    this.concurrency = concurrency;
+    this.claimTimeout = claimTimeout;
+    this.expirations = Sinks.many().unicast().onBackpressureBuffer();
+    this.subscription =
+        expirations
+            .asFlux()
+            .bufferTimeout(batchSize, window)
+            .onBackpressureBuffer()
+            .concatMap(this::revokeWindow)
+            .subscribe();
+  }
+
+  /** Queues an expired registration; must be called from a single thread at a time. */
+  public void submit(Registration registration) {
+    var result = expirations.tryEmitNext(registration);
+    if (result.isFailure()) {
+      log.error("Cannot queue revocation for {}: {}", registration.getRegistrationKey(), result);
+    }
+  }
+
+  /** Registrations left in the store because their revoke or delete failed. */
+  public Flux<Registration> failures() {
+    return failures.asFlux();
+  }
+
+  private Mono<Void> revokeWindow(List<Registration> registrations) {
+    return dao.claimExpired(registrations, Instant.now().plus(claimTimeout))
+        .collectList()
+        .onErrorResume(
+            throwable -> {
+              log.error("Claim expired registrations failed...", throwable);
+              registrations.forEach(this::fail);
+              return Mono.empty();
+            })
+        .flatMap(this::revokeClaimed);
+  }
+
+  private Mono<Void> revokeClaimed(List<Registration> registrations) {
+    log.info("Revoke {} expired registrations", registrations.size());
+    return Flux.fromIterable(registrations)
+        .flatMap(this::revoke, concurrency)
+        .collectList()
+        .flatMap(
+            revoked ->
+                dao.expireAll(
+                        revoked.stream()
+                            .map(Registration::getRegistrationKey)
+                            .collect(Collectors.toList()))
+                    .onErrorResume(
+                        throwable -> {
+                          log.error("Delete expired registrations failed...", throwable);
+                          revoked.forEach(this::fail);
+                          return Mono.empty();
+                        }));
+  }
+
+  private Mono<Registration> revoke(Registration registration) {
+    return lineNotifyClient
+        .revokeAccessToken(registration.getAccessToken())
+        // LINE rejects a token that is already revoked, nothing is left to revoke then
+        .onErrorResume(WebClientResponseException.Unauthorized.class, throwable -> Mono.empty())
+        .then(Mono.just(registration))
+        .onErrorResume(
+            throwable -> {
+              log.error("Revoke access token failed for {}", registration.getRegistrationKey());
+              fail(registration);
+              return Mono.empty();
+            });
+  }
+
+  private void fail(Registration registration) {
+    EmitResult result;
+    do {
+      result = failures.tryEmitNext(registration);
+    } while (result == EmitResult.FAIL_NON_SERIALIZED);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscription.dispose();
+  }
+}
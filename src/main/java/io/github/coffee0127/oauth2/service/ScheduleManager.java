@@ -1,47 +1,170 @@
 package io.github.coffee0127.oauth2.service;
 
 import io.github.coffee0127.oauth2.objects.Registration;
-import io.github.coffee0127.oauth2.service.client.LineNotifyClient;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
 import io.github.coffee0127.oauth2.service.dao.RegistrationDao;
+import io.github.coffee0127.oauth2.service.scheduler.TimingWheel;
+import io.github.coffee0127.oauth2.service.scheduler.TimingWheel.Timeout;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
 import java.time.Duration;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 @Service
 public class ScheduleManager {
 
-  private final Timer timer;
+  private static final Duration TICK = Duration.ofSeconds(1);
+  private static final int WHEEL_SIZE = 64;
+  private static final int LEVELS = 4;
+
+  private final Scheduler scheduler;
+  private final TimingWheel<Registration> timingWheel;
+  private final Map<RegistrationKey, Timeout<Registration>> timeouts;
   private final RegistrationDao dao;
-  private final LineNotifyClient lineNotifyClient;
+  private final RevocationPipeline revocationPipeline;
+  private final Duration minRetryDelay;
+  private final Duration retryPeriod;
+  private final Disposable failures;
 
-  public ScheduleManager(RegistrationDao dao, LineNotifyClient lineNotifyClient) {
+  public ScheduleManager(
+      RegistrationDao dao,
+      RevocationPipeline revocationPipeline,
+      MeterRegistry meterRegistry,
+      @Value("${line.notify.revocation.minRetryDelay:30s}") Duration minRetryDelay,
+      @Value("${line.notify.revocation.retryPeriod:1d}") Duration retryPeriod) {
     this.dao = dao;
-    this.lineNotifyClient = lineNotifyClient;
-    this.timer = new Timer();
+    this.revocationPipeline = revocationPipeline;
+    this.minRetryDelay = minRetryDelay;
+    this.retryPeriod = retryPeriod;
+    this.timeouts = new ConcurrentHashMap<>();
+    this.scheduler = Schedulers.newSingle("registration-expiry", true);
+    this.timingWheel =
+        new TimingWheel<>(TICK, WHEEL_SIZE, LEVELS, scheduler, this::cleanup).start();
+    this.failures = revocationPipeline.failures().subscribe(this::retryCleanup);
+    bindMetrics(meterRegistry);
   }
 
   public void scheduleCleanup(Registration registration) {
-    var expiryTime = registration.getCreateTime().plus(Duration.ofHours(1));
-    registration.setExpiryTime(expiryTime);
-    log.info("Schedule cleanup for {} at {}", registration.getRegistrationKey(), expiryTime);
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            log.info("Cleanup for {}", registration.getRegistrationKey());
-            lineNotifyClient
-                .revokeAccessToken(registration.getAccessToken())
-                .retry(5)
-                // TODO enhance retry mechanism
-                .doOnError(throwable -> log.error("Revoke access token failed..."))
-                .then(dao.delete(registration.getRegistrationKey()))
-                .block();
-          }
-        },
-        Date.from(expiryTime));
+    log.info(
+        "Schedule cleanup for {} at {}",
+        registration.getRegistrationKey(),
+        registration.getExpiryTime());
+    schedule(registration);
+  }
+
+  /**
+   * Re-arms the cleanup of registrations that were restored from durable storage. Instances sharing
+   * the store all re-arm every registration, the {@link RevocationPipeline} claims each before its
+   * revoke so only one of them revokes it.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void rescheduleCleanups() {
+    dao.findAll()
+        .subscribe(
+            registrations -> {
+              registrations.forEach(this::schedule);
+              log.info("Rescheduled cleanup for {} registrations", registrations.size());
+            });
+  }
+
+  private void schedule(Registration registration) {
+    var expiryTime = registration.getExpiryTime();
+    var previous =
+        timeouts.put(
+            registration.getRegistrationKey(), timingWheel.schedule(registration, expiryTime));
+    if (previous != null) {
+      previous.cancel();
+    }
+  }
+
+  /**
+   * Re-arms a registration whose revoke failed. Each retry waits as long as the registration is
+   * already overdue, so the attempts spread out, until {@code retryPeriod} after the expiry the
+   * registration is only removed locally.
+   */
+  private void retryCleanup(Registration registration) {
+    var registrationKey = registration.getRegistrationKey();
+    var now = Instant.now();
+    var overdue = Duration.between(registration.getExpiryTime(), now);
+    if (overdue.compareTo(retryPeriod) >= 0) {
+      log.error(
+          "Give up revoking {}, revoke its access token {} manually",
+          registrationKey,
+          registration.getAccessToken());
+      dao.expireAll(List.of(registrationKey))
+          .subscribe(
+              null, throwable -> log.error("Expire {} failed...", registrationKey, throwable));
+      return;
+    }
+    var delay = overdue.compareTo(minRetryDelay) > 0 ? overdue : minRetryDelay;
+    log.warn("Retry cleanup for {} in {}", registrationKey, delay);
+    // a registration saved again meanwhile already has its own cleanup
+    timeouts.computeIfAbsent(
+        registrationKey, key -> timingWheel.schedule(registration, now.plus(delay)));
+  }
+
+  public void cancelCleanup(RegistrationKey registrationKey) {
+    var timeout = timeouts.remove(registrationKey);
+    if (timeout != null && timeout.cancel()) {
+      log.info("Cancel cleanup for {}", registrationKey);
+    }
+  }
+
+  private void bindMetrics(MeterRegistry registry) {
+    Gauge.builder("registration.expiry.pending", timingWheel, TimingWheel::getPendingCount)
+        .description("Registrations waiting for their expiry")
+        .register(registry);
+    FunctionCounter.builder("registration.expiry.fired", timingWheel, TimingWheel::getFiredCount)
+        .description("Registrations expired by the timing wheel")
+        .register(registry);
+    TimeGauge.builder(
+            "registration.expiry.lag.last",
+            timingWheel,
+            TimeUnit.MILLISECONDS,
+            wheel -> wheel.getLastLag().toMillis())
+        .description("Delay between deadline and firing of the latest expiry")
+        .register(registry);
+    TimeGauge.builder(
+            "registration.expiry.lag.max",
+            timingWheel,
+            TimeUnit.MILLISECONDS,
+            wheel -> wheel.getMaxLag().toMillis())
+        .description("Largest delay between deadline and firing of an expiry")
+        .register(registry);
+  }
+
+  public TimingWheel<Registration> getTimingWheel() {
+    return timingWheel;
+  }
+
+  private void cleanup(Registration registration) {
+    var registrationKey = registration.getRegistrationKey();
+    log.info("Cleanup for {}", registrationKey);
+    timeouts.computeIfPresent(
+        registrationKey, (key, timeout) -> timeout.getPayload() == registration ? null : timeout);
+    revocationPipeline.submit(registration);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    failures.dispose();
+    timingWheel.dispose();
+    scheduler.dispose();
   }
 }
@@ -0,0 +1,168 @@
+package io.github.coffee0127.oauth2.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Issues and validates the {@code state} parameter of the OAuth2 flows as a self-contained,
+ * HMAC-signed token, so a callback can be validated without any server-side memory or session.
+ *
+ * <p>A token is {@code base64url(payload) + "." + base64url(HMAC-SHA256(payload))}, the payload
+ * holding the purpose, the expiry time, a random nonce and the user ID (if any). Tokens are not
+ * single-use; they are only accepted until they expire, unless the flow also checks the {@link
+ * #binding} of the token kept by the browser that started it.
+ */
+@Slf4j
+@Service
+public class StateTokenService {
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int NONCE_BYTES = 16;
+  private static final int HEADER_BYTES = 1 + Long.BYTES + NONCE_BYTES;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final ThreadLocal<Mac> macs;
+  private final Duration ttl;
+  private final SecureRandom random = new SecureRandom();
+  private final Clock clock = Clock.systemUTC();
+
+  public StateTokenService(
+      @Value("${oauth2.stateSecret:${line.channelSecret}}") String secret,
+      @Value("${oauth2.stateTtl:10m}") Duration ttl) {
+    var key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    this.macs =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                var mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+              } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    this.ttl = ttl;
+  }
+
+  /** @param userId user the flow is started for, {@code null} before login */
+  public StateToken issue(Purpose purpose, String userId) {
+    var nonce = new byte[NONCE_BYTES];
+    random.nextBytes(nonce);
+    var expiryTime = clock.instant().plus(ttl).getEpochSecond();
+    var user = userId == null ? new byte[0] : userId.getBytes(StandardCharsets.UTF_8);
+    var payload =
+        ByteBuffer.allocate(HEADER_BYTES + user.length)
+            .put((byte) purpose.ordinal())
+            .putLong(expiryTime)
+            .put(nonce)
+            .put(user)
+            .array();
+    var token = ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    return new StateToken(
+        token, userId, ENCODER.encodeToString(nonce), Instant.ofEpochSecond(expiryTime));
+  }
+
+  /** @return the decoded token if it was issued for {@code purpose}, is authentic and not expired */
+  public Optional<StateToken> verify(Purpose purpose, String token) {
+    if (token == null) {
+      return Optional.empty();
+    }
+    var separator = token.indexOf('.');
+    if (separator < 0) {
+      return Optional.empty();
+    }
+    byte[] payload;
+    byte[] signature;
+    try {
+      payload = DECODER.decode(token.substring(0, separator));
+      signature = DECODER.decode(token.substring(separator + 1));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    if (payload.length < HEADER_BYTES || !MessageDigest.isEqual(signature, sign(payload))) {
+      log.warn("Invalid state token: {}", token);
+      return Optional.empty();
+    }
+
+    var buffer = ByteBuffer.wrap(payload);
+    if (buffer.get() != purpose.ordinal()) {
+      return Optional.empty();
+    }
+    var expiryTime = Instant.ofEpochSecond(buffer.getLong());
+    if (clock.instant().isAfter(expiryTime)) {
+      log.warn("Expired state token: {}", token);
+      return Optional.empty();
+    }
+    var nonce = new byte[NONCE_BYTES];
+    buffer.get(nonce);
+    var userId =
+        buffer.hasRemaining()
+            ? new String(
+                payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8)
+            : null;
+    return Optional.of(new StateToken(token, userId, ENCODER.encodeToString(nonce), expiryTime));
+  }
+
+  /**
+   * SHA-256 digest of the token nonce, for a cookie of the browser starting the flow. Checked with
+   * {@link #isBound} on the callback, so the callback URL completes the flow in no other browser.
+   */
+  public String binding(StateToken stateToken) {
+    return ENCODER.encodeToString(digest(stateToken.getNonce()));
+  }
+
+  /** @return whether {@code binding} was taken from the same token, see {@link #binding} */
+  public boolean isBound(StateToken stateToken, String binding) {
+    if (binding == null) {
+      return false;
+    }
+    try {
+      return MessageDigest.isEqual(DECODER.decode(binding), digest(stateToken.getNonce()));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static byte[] digest(String nonce) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(nonce.getBytes(StandardCharsets.US_ASCII));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private byte[] sign(byte[] payload) {
+    return macs.get().doFinal(payload);
+  }
+
+  public enum Purpose {
+    LINE_LOGIN,
+    LINE_NOTIFY
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static class StateToken {
+    private final String token;
+    private final String userId;
+    private final String nonce;
+    private final Instant expiryTime;
+  }
+}
@@ -2,6 +2,8 @@ package io.github.coffee0127.oauth2.service;
 
 import io.github.coffee0127.oauth2.objects.UserPrincipal;
 import io.github.coffee0127.oauth2.service.dao.UserDao;
+import java.util.Collection;
+import java.util.Map;
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
@@ -15,4 +17,8 @@ public class UserService {
   public Mono<UserPrincipal> find(String userId){
     return dao.find(userId);
   }
+
+  public Mono<Map<String, UserPrincipal>> findAll(Collection<String> userIds) {
+    return dao.findAll(userIds);
+  }
 }
@@ -0,0 +1,147 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fails calls to a host fast once {@code failureThreshold} consecutive calls failed, instead of
+ * piling more load onto it. After {@code openDuration} a single trial call is let through, which
+ * closes the breaker on success and opens it again on failure.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private enum Permission {
+    DENIED,
+    CALL,
+    TRIAL
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openMillis;
+  private final Predicate<Throwable> failurePredicate;
+
+  private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicBoolean trialInFlight = new AtomicBoolean();
+  private volatile long openUntilMillis;
+
+  /** @param failurePredicate errors counting as a failure of the host, others count as success */
+  public CircuitBreaker(
+      String name,
+      int failureThreshold,
+      Duration openDuration,
+      Predicate<Throwable> failurePredicate) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openDuration.toMillis();
+    this.failurePredicate = failurePredicate;
+  }
+
+  /** Subscribes to {@code call} only when the breaker permits it, and records its outcome. */
+  public <T> Mono<T> protect(Mono<T> call) {
+    return Mono.defer(
+        () -> {
+          var permission = tryAcquirePermission();
+          if (permission == Permission.DENIED) {
+            return Mono.error(new CircuitBreakerOpenException(name, getRetryTime()));
+          }
+          // only the trial call decides whether a half open breaker closes or opens again
+          var trial = permission == Permission.TRIAL;
+          return call.doOnSuccess(unused -> onSuccess(trial))
+              .doOnError(
+                  throwable -> {
+                    if (failurePredicate.test(throwable)) {
+                      onFailure(trial);
+                    } else {
+                      onSuccess(trial);
+                    }
+                  })
+              .doOnCancel(
+                  () -> {
+                    if (trial) {
+                      trialInFlight.set(false);
+                    }
+                  });
+        });
+  }
+
+  private Permission tryAcquirePermission() {
+    switch (getState()) {
+      case CLOSED:
+        return Permission.CALL;
+      case OPEN:
+        if (System.currentTimeMillis() < openUntilMillis
+            || !state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+          return Permission.DENIED;
+        }
+        log.info("Circuit breaker {} is half open", name);
+        return trialInFlight.compareAndSet(false, true) ? Permission.TRIAL : Permission.DENIED;
+      case HALF_OPEN:
+      default:
+        return trialInFlight.compareAndSet(false, true) ? Permission.TRIAL : Permission.DENIED;
+    }
+  }
+
+  private void onSuccess(boolean trial) {
+    if (!trial) {
+      // a call started before the breaker opened does not close it
+      if (getState() == State.CLOSED) {
+        consecutiveFailures.set(0);
+      }
+      return;
+    }
+    consecutiveFailures.set(0);
+    if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+      log.info("Circuit breaker {} is closed", name);
+    }
+    trialInFlight.set(false);
+  }
+
+  private void onFailure(boolean trial) {
+    var failures = consecutiveFailures.incrementAndGet();
+    if (trial) {
+      openUntilMillis = System.currentTimeMillis() + openMillis;
+      if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+        log.warn("Circuit breaker {} is open again after a failed trial call", name);
+      }
+      trialInFlight.set(false);
+    } else if (failures >= failureThreshold && getState() == State.CLOSED) {
+      // set before the transition, so no caller sees the breaker open with a stale deadline
+      openUntilMillis = System.currentTimeMillis() + openMillis;
+      if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+        log.warn("Circuit breaker {} is open after {} consecutive failures", name, failures);
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public State getState() {
+    return state.get();
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures.get();
+  }
+
+  /** @return when the next trial call is permitted, {@code null} unless open */
+  public Instant getRetryTime() {
+    return getState() == State.OPEN ? Instant.ofEpochMilli(openUntilMillis) : null;
+  }
+}
@@ -0,0 +1,22 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import java.time.Instant;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class CircuitBreakerOpenException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String name;
+  private final Instant retryTime;
+
+  public CircuitBreakerOpenException(String name, Instant retryTime) {
+    super("Circuit breaker " + name + " is open until " + retryTime);
+    this.name = name;
+    this.retryTime = retryTime;
+  }
+}
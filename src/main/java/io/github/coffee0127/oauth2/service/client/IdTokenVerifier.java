@@ -0,0 +1,54 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.util.Optional;
+
+/**
+ * Verifies LINE Login ID tokens and decodes them into a {@link UserPrincipal} in the same pass. The
+ * signing algorithm and the verifier of the static claims are built once and shared, only the nonce
+ * is checked per request.
+ */
+public class IdTokenVerifier {
+
+  private static final String ISSUER = "https://access.line.me";
+
+  private final JWTVerifier verifier;
+
+  public IdTokenVerifier(String channelId, String channelSecret) {
+    this.verifier =
+        JWT.require(Algorithm.HMAC256(channelSecret))
+            .withIssuer(ISSUER)
+            .withAudience(channelId)
+            // add 60 seconds leeway to handle clock skew between client and server sides.
+            .acceptLeeway(60)
+            .build();
+  }
+
+  /** @return the user of a valid token, or empty if the signature, claims or nonce do not match. */
+  public Optional<UserPrincipal> verify(String idToken, String nonce) {
+    try {
+      var jwt = verifier.verify(idToken);
+      var tokenNonce = jwt.getClaim("nonce").asString();
+      if (nonce == null || !nonce.equals(tokenNonce)) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          new UserPrincipal(
+              jwt.getIssuer(),
+              jwt.getSubject(),
+              jwt.getAudience().get(0),
+              jwt.getExpiresAt().toInstant(),
+              jwt.getIssuedAt().toInstant(),
+              tokenNonce,
+              jwt.getClaim("name").asString(),
+              jwt.getClaim("picture").asString()));
+    } catch (JWTVerificationException e) {
+      // Invalid signature/claims
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+/**
+ * Times every exchange of a LINE API client until the response status is received and counts the
+ * failed ones, tagged by client, endpoint and status.
+ */
+public class LineCallMetrics implements ExchangeFilterFunction {
+
+  private static final String REQUESTS = "line.client.requests";
+  private static final String ERRORS = "line.client.errors";
+
+  private final MeterRegistry registry;
+  private final String client;
+
+  public LineCallMetrics(MeterRegistry registry, String client) {
+    this.registry = registry;
+    this.client = client;
+  }
+
+  @Override
+  public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+    var tags =
+        Tags.of(
+            "client", client,
+            "method", request.method().name(),
+            "endpoint", request.url().getPath());
+    return Mono.defer(
+        () -> {
+          var sample = Timer.start(registry);
+          return next.exchange(request)
+              .doOnNext(
+                  response -> {
+                    var status = response.rawStatusCode();
+                    var outcome = Outcome.forStatus(status);
+                    record(sample, tags.and("status", String.valueOf(status)), outcome);
+                    if (outcome != Outcome.SUCCESS && outcome != Outcome.REDIRECTION) {
+                      countError(tags.and("error", String.valueOf(status)));
+                    }
+                  })
+              .doOnError(
+                  throwable -> {
+                    record(sample, tags.and("status", "IO_ERROR"), Outcome.UNKNOWN);
+                    countError(tags.and("error", throwable.getClass().getSimpleName()));
+                  });
+        });
+  }
+
+  private void record(Timer.Sample sample, Tags tags, Outcome outcome) {
+    sample.stop(
+        Timer.builder(REQUESTS)
+            .description("Calls to the LINE APIs")
+            .tags(tags)
+            .tag("outcome", outcome.name())
+            .register(registry));
+  }
+
+  private void countError(Tags tags) {
+    Counter.builder(ERRORS)
+        .description("Failed calls to the LINE APIs")
+        .tags(tags)
+        .register(registry)
+        .increment();
+  }
+}
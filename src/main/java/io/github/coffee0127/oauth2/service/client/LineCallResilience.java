@@ -0,0 +1,175 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.handler.timeout.TimeoutException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Retries failed LINE calls with exponential backoff and jitter, and guards each LINE client with a
+ * {@link CircuitBreaker}, so a LINE outage is not amplified by back-to-back retries.
+ *
+ * <p>Only connection errors, timeouts and 429, 502, 503 and 504 responses are retried; other errors and an
+ * open breaker fail at once. Connection errors, timeouts and 5xx responses count as failures of the host.
+ * Calls that must not run twice use a {@link #nonIdempotentPolicy} instead.
+ */
+@Slf4j
+@Component
+public class LineCallResilience {
+
+  private static final Set<Integer> RETRYABLE_STATUSES = Set.of(429, 502, 503, 504);
+
+  /** Responses of requests LINE did not process. */
+  private static final Set<Integer> REJECTED_STATUSES = Set.of(429, 503);
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+  private final int maxRetries;
+  private final Duration minBackoff;
+  private final Duration maxBackoff;
+  private final double jitter;
+  private final int failureThreshold;
+  private final Duration openDuration;
+
+  public LineCallResilience(
+      MeterRegistry meterRegistry,
+      @Value("${line.retry.maxRetries:3}") int maxRetries,
+      @Value("${line.retry.minBackoff:200ms}") Duration minBackoff,
+      @Value("${line.retry.maxBackoff:5s}") Duration maxBackoff,
+      @Value("${line.retry.jitter:0.5}") double jitter,
+      @Value("${line.circuitBreaker.failureThreshold:5}") int failureThreshold,
+      @Value("${line.circuitBreaker.openDuration:30s}") Duration openDuration) {
+    this.meterRegistry = meterRegistry;
+    this.maxRetries = maxRetries;
+    this.minBackoff = minBackoff;
+    this.maxBackoff = maxBackoff;
+    this.jitter = jitter;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  /** @param client name of the LINE client, one circuit breaker is kept per client */
+  public Policy policy(String client) {
+    return policy(client, LineCallResilience::isRetryable);
+  }
+
+  /**
+   * Retries only when LINE surely did not process the request, after 429 and 503 responses and
+   * failures to connect. A timeout or a 502 may follow a request LINE already accepted, so a
+   * message would be sent twice.
+   *
+   * @param client name of the LINE client, the circuit breaker is shared with {@link #policy}
+   */
+  public Policy nonIdempotentPolicy(String client) {
+    return policy(client, LineCallResilience::isRejected);
+  }
+
+  private Policy policy(String client, Predicate<Throwable> retryable) {
+    var circuitBreaker = circuitBreakers.computeIfAbsent(client, this::createCircuitBreaker);
+    var retries =
+        Counter.builder("line.client.retries")
+            .description("Retried calls to the LINE APIs")
+            .tag("client", client)
+            .register(meterRegistry);
+    var retry =
+        Retry.backoff(maxRetries, minBackoff)
+            .maxBackoff(maxBackoff)
+            .jitter(jitter)
+            .filter(retryable)
+            .doBeforeRetry(
+                signal -> {
+                  retries.increment();
+                  log.debug(
+                      "Retry {} call #{}: {}",
+                      client,
+                      signal.totalRetries() + 1,
+                      signal.failure().toString());
+                })
+            .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    return new Policy(circuitBreaker, retry);
+  }
+
+  public Collection<CircuitBreaker> getCircuitBreakers() {
+    return circuitBreakers.values();
+  }
+
+  private CircuitBreaker createCircuitBreaker(String client) {
+    var circuitBreaker =
+        new CircuitBreaker(
+            client, failureThreshold, openDuration, LineCallResilience::isHostFailure);
+    Gauge.builder("line.client.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+        .description("Circuit breaker state of a LINE client: 0 closed, 1 open, 2 half open")
+        .tag("client", client)
+        .register(meterRegistry);
+    return circuitBreaker;
+  }
+
+  static boolean isRetryable(Throwable throwable) {
+    if (throwable instanceof WebClientResponseException) {
+      return RETRYABLE_STATUSES.contains(
+          ((WebClientResponseException) throwable).getRawStatusCode());
+    }
+    return throwable instanceof WebClientRequestException || throwable instanceof TimeoutException;
+  }
+
+  static boolean isRejected(Throwable throwable) {
+    if (throwable instanceof WebClientResponseException) {
+      return REJECTED_STATUSES.contains(
+          ((WebClientResponseException) throwable).getRawStatusCode());
+    }
+    if (throwable instanceof WebClientRequestException) {
+      var cause = throwable.getCause();
+      return cause instanceof ConnectException || cause instanceof UnknownHostException;
+    }
+    return false;
+  }
+
+  static boolean isHostFailure(Throwable throwable) {
+    if (throwable instanceof WebClientResponseException) {
+      return ((WebClientResponseException) throwable).getRawStatusCode() >= 500;
+    }
+    return throwable instanceof WebClientRequestException || throwable instanceof TimeoutException;
+  }
+
+  /** Retry and circuit breaker of one LINE client. */
+  public static class Policy {
+    private final CircuitBreaker circuitBreaker;
+    private final Retry retry;
+
+    private Policy(CircuitBreaker circuitBreaker, Retry retry) {
+      this.circuitBreaker = circuitBreaker;
+      this.retry = retry;
+    }
+
+    /** @param call a cold call, subscribed again for every attempt */
+    public <T> Mono<T> apply(Mono<T> call) {
+      return retry(protect(call));
+    }
+
+    /** Guards only the LINE call, so local work around it cannot close or reset the breaker. */
+    public <T> Mono<T> protect(Mono<T> call) {
+      return circuitBreaker.protect(call);
+    }
+
+    /** @param attempt a cold attempt containing a {@link #protect protected} call */
+    public <T> Mono<T> retry(Mono<T> attempt) {
+      return attempt.retryWhen(retry);
+    }
+  }
+}
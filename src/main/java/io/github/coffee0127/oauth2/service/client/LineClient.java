@@ -1,15 +1,15 @@
 package io.github.coffee0127.oauth2.service.client;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import io.github.coffee0127.oauth2.objects.AccessTokenResponse;
-import io.netty.channel.ChannelOption;
-import io.netty.handler.codec.http.HttpHeaderNames;
+import io.github.coffee0127.oauth2.objects.ProfileResponse;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.net.URI;
 import java.util.List;
+import java.util.Optional;
+import javax.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
@@ -20,17 +20,14 @@ import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import reactor.core.publisher.Mono;
-import reactor.netty.http.client.HttpClient;
 
 @Slf4j
 @Component
 public class LineClient {
 
-  private static final String OAUTH_BASE_URL = "https://api.line.me/oauth2/v2.1";
-  private static final String AUTHORIZE_URL = "https://access.line.me/oauth2/v2.1/authorize";
-  private static final String USER_AGENT = "oauth2-playground-client";
   private static final String SCOPES = String.join(" ", List.of("openid", "profile"));
   private final WebClient webClient;
+  private final LineCallResilience.Policy policy;
 
   @Value("${line.channelId}")
   private String channelId;
@@ -41,7 +38,19 @@ public class LineClient {
   @Value("${line.callbackUrl}")
   private String callbackUrl;
 
-  public LineClient(WebClient.Builder webClientBuilder, ObjectMapper baseObjectMapper) {
+  @Value("${line.authorizeUrl:https://access.line.me/oauth2/v2.1/authorize}")
+  private String authorizeUrl;
+
+  private IdTokenVerifier idTokenVerifier;
+
+  public LineClient(
+      WebClient.Builder webClientBuilder,
+      ObjectMapper baseObjectMapper,
+      MeterRegistry meterRegistry,
+      LineHttpClientFactory httpClientFactory,
+      LineCallResilience resilience,
+      @Value("${line.apiBaseUrl:https://api.line.me}") String apiBaseUrl) {
+    this.policy = resilience.policy("line-login");
     var objectMapper = baseObjectMapper.copy();
     objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
     this.webClient =
@@ -54,19 +63,19 @@ public class LineClient {
                                 .customCodecs()
                                 .registerWithDefaultConfig(new Jackson2JsonDecoder(objectMapper)))
                     .build())
+            .filter(new LineCallMetrics(meterRegistry, "line-login"))
             .clientConnector(
-                new ReactorClientHttpConnector(
-                    HttpClient.create()
-                        .baseUrl(OAUTH_BASE_URL)
-                        .keepAlive(true)
-                        .followRedirect(true)
-                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                        .headers(builder -> builder.add(HttpHeaderNames.USER_AGENT, USER_AGENT))))
+                new ReactorClientHttpConnector(httpClientFactory.create("line-login", apiBaseUrl)))
             .build();
   }
 
+  @PostConstruct
+  public void init() {
+    idTokenVerifier = new IdTokenVerifier(channelId, channelSecret);
+  }
+
   public URI getRedirectUri(String state, String nonce) {
-    return new DefaultUriBuilderFactory(AUTHORIZE_URL)
+    return new DefaultUriBuilderFactory(authorizeUrl)
         .builder()
         .queryParam("response_type", "code")
         .queryParam("client_id", channelId)
@@ -86,13 +95,39 @@ public class LineClient {
     formData.add("code", code);
     return webClient
         .post()
-        .uri("/token")
+        .uri("/oauth2/v2.1/token")
         .bodyValue(formData)
         .retrieve()
         .bodyToMono(AccessTokenResponse.class)
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
   }
 
+  /** Issues a new access token, and usually a new refresh token, for a refresh token. */
+  public Mono<AccessTokenResponse> refreshAccessToken(String refreshToken) {
+    var formData = new LinkedMultiValueMap<>();
+    formData.add("grant_type", "refresh_token");
+    formData.add("refresh_token", refreshToken);
+    formData.add("client_id", channelId);
+    formData.add("client_secret", channelSecret);
+    return webClient
+        .post()
+        .uri("/oauth2/v2.1/token")
+        .bodyValue(formData)
+        .retrieve()
+        .bodyToMono(AccessTokenResponse.class)
+        .transform(policy::apply);
+  }
+
+  public Mono<ProfileResponse> getProfile(String accessToken) {
+    return webClient
+        .get()
+        .uri("/v2/profile")
+        .headers(headers -> headers.setBearerAuth(accessToken))
+        .retrieve()
+        .bodyToMono(ProfileResponse.class)
+        .transform(policy::apply);
+  }
+
   public Mono<Void> revoke(String accessToken) {
     var formData = new LinkedMultiValueMap<>();
     formData.add("access_token", accessToken);
@@ -100,27 +135,14 @@ public class LineClient {
     formData.add("client_secret", channelSecret);
     return webClient
         .post()
-        .uri("/revoke")
+        .uri("/oauth2/v2.1/revoke")
         .bodyValue(formData)
         .retrieve()
         .bodyToMono(Void.class)
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
   }
 
-  public boolean verifyIdToken(String idToken, String nonce) {
-    try {
-      JWT.require(Algorithm.HMAC256(channelSecret))
-          .withIssuer("https://access.line.me")
-          .withAudience(channelId)
-          .withClaim("nonce", nonce)
-          // add 60 seconds leeway to handle clock skew between client and server sides.
-          .acceptLeeway(60)
-          .build()
-          .verify(idToken);
-      return true;
-    } catch (JWTVerificationException e) {
-      // Invalid signature/claims
-      return false;
-    }
+  public Optional<UserPrincipal> verifyIdToken(String idToken, String nonce) {
+    return idTokenVerifier.verify(idToken, nonce);
   }
 }
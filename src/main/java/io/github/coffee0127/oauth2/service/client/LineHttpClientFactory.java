@@ -0,0 +1,86 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Creates the {@link HttpClient}s calling the LINE APIs, each on its own named {@link
+ * ConnectionProvider}, so a burst towards one LINE host can neither exhaust the connections nor
+ * queue requests without bound for the others. Pool metrics are published as {@code
+ * reactor.netty.connection.provider.*} tagged with the client name.
+ */
+@Slf4j
+@Component
+public class LineHttpClientFactory {
+
+  private static final String USER_AGENT = "oauth2-playground-client";
+
+  private final LineHttpClientProperties properties;
+  private final Map<String, ConnectionProvider> providers = new ConcurrentHashMap<>();
+
+  public LineHttpClientFactory(LineHttpClientProperties properties) {
+    this.properties = properties;
+  }
+
+  /** @param name client name, also naming its connection pool */
+  public HttpClient create(String name, String baseUrl) {
+    var client =
+        HttpClient.create(providers.computeIfAbsent(name, this::createProvider))
+            .baseUrl(baseUrl)
+            .keepAlive(true)
+            .followRedirect(true)
+            .option(
+                ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                (int) properties.getConnectTimeout().toMillis())
+            .responseTimeout(properties.getResponseTimeout())
+            // handlers added per request are removed when the connection returns to the pool
+            .doOnRequest(
+                (request, connection) ->
+                    connection
+                        .addHandlerLast(
+                            new ReadTimeoutHandler(
+                                properties.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS))
+                        .addHandlerLast(
+                            new WriteTimeoutHandler(
+                                properties.getWriteTimeout().toMillis(), TimeUnit.MILLISECONDS)))
+            .headers(builder -> builder.add(HttpHeaderNames.USER_AGENT, USER_AGENT));
+    // HTTP/2 is negotiated through TLS ALPN, plain HTTP base URLs (e.g. a local stub) keep HTTP/1.1
+    if (properties.isHttp2() && baseUrl.startsWith("https:")) {
+      client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+    }
+    if (properties.isWarmup()) {
+      client.warmup().block();
+    }
+    return client;
+  }
+
+  private ConnectionProvider createProvider(String name) {
+    var pool = properties.getPool(name);
+    log.info("Connection pool {}: {}", name, pool);
+    return ConnectionProvider.builder(name)
+        .maxConnections(pool.getMaxConnections())
+        .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+        .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+        .maxIdleTime(pool.getMaxIdleTime())
+        .maxLifeTime(pool.getMaxLifeTime())
+        .evictInBackground(pool.getEvictionInterval())
+        .metrics(true)
+        .build();
+  }
+
+  @PreDestroy
+  public void dispose() {
+    providers.values().forEach(ConnectionProvider::dispose);
+  }
+}
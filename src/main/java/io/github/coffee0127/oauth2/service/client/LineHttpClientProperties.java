@@ -0,0 +1,61 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/** Transport settings of the HTTP clients calling the LINE APIs. */
+@Data
+@Component
+@ConfigurationProperties("line.http")
+public class LineHttpClientProperties {
+
+  private Duration connectTimeout = Duration.ofSeconds(5);
+
+  /** Time to receive the response headers after the request is sent. */
+  private Duration responseTimeout = Duration.ofSeconds(10);
+
+  /** Maximum time without reading data while a response is in progress. */
+  private Duration readTimeout = Duration.ofSeconds(10);
+
+  private Duration writeTimeout = Duration.ofSeconds(10);
+
+  /** Negotiates HTTP/2 with {@code https} hosts supporting it, falls back to HTTP/1.1. */
+  private boolean http2 = false;
+
+  /** Loads the event loops, the DNS resolver and TLS on creation instead of on the first call. */
+  private boolean warmup = false;
+
+  /** Connection pool of every client, unless overridden in {@link #pools}. */
+  private Pool pool = new Pool();
+
+  /** Connection pools by client name: line-login, line-notify-oauth or line-notify-api. */
+  private Map<String, Pool> pools = new LinkedHashMap<>();
+
+  public Pool getPool(String client) {
+    return pools.getOrDefault(client, pool);
+  }
+
+  @Data
+  public static class Pool {
+
+    private int maxConnections = 50;
+
+    /** Requests waiting for a connection, further requests fail immediately. */
+    private int pendingAcquireMaxCount = 500;
+
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+
+    /** Closes connections idle for longer, before the server or a proxy silently drops them. */
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    /** Closes older connections, so DNS changes of the LINE hosts are picked up. */
+    private Duration maxLifeTime = Duration.ofMinutes(5);
+
+    /** Interval of evicting idle and expired connections in the background. */
+    private Duration evictionInterval = Duration.ofSeconds(30);
+  }
+}
@@ -4,30 +4,27 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import io.github.coffee0127.oauth2.objects.AccessTokenResponse;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
-import io.netty.channel.ChannelOption;
-import io.netty.handler.codec.http.HttpHeaderNames;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.net.URI;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.http.codec.json.Jackson2JsonDecoder;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import reactor.core.publisher.Mono;
-import reactor.netty.http.client.HttpClient;
 
 @Slf4j
 @Component
 public class LineNotifyClient {
-  private static final String OAUTH_BASE_URL = "https://notify-bot.line.me/oauth";
-  private static final String NOTIFICATION_BASE_URL = "https://notify-api.line.me/api";
-  private static final String USER_AGENT = "oauth2-playground-client";
 
   @Value("${line.notify.clientId}")
   private String clientId;
@@ -40,8 +37,26 @@ public class LineNotifyClient {
 
   private final WebClient oauthWebClient;
   private final WebClient notificationWebClient;
+  private final LineNotifyRateLimiter rateLimiter;
+  private final LineCallResilience.Policy oauthPolicy;
+  private final LineCallResilience.Policy apiPolicy;
+  private final LineCallResilience.Policy notifyPolicy;
+  private final String botBaseUrl;
 
-  public LineNotifyClient(WebClient.Builder webClientBuilder, ObjectMapper baseObjectMapper) {
+  public LineNotifyClient(
+      WebClient.Builder webClientBuilder,
+      ObjectMapper baseObjectMapper,
+      LineNotifyRateLimiter rateLimiter,
+      MeterRegistry meterRegistry,
+      LineHttpClientFactory httpClientFactory,
+      LineCallResilience resilience,
+      @Value("${line.notify.botBaseUrl:https://notify-bot.line.me}") String botBaseUrl,
+      @Value("${line.notify.apiBaseUrl:https://notify-api.line.me}") String apiBaseUrl) {
+    this.rateLimiter = rateLimiter;
+    this.botBaseUrl = botBaseUrl;
+    this.oauthPolicy = resilience.policy("line-notify-oauth");
+    this.apiPolicy = resilience.policy("line-notify-api");
+    this.notifyPolicy = resilience.nonIdempotentPolicy("line-notify-api");
     var objectMapper = baseObjectMapper.copy();
     objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
     this.oauthWebClient =
@@ -55,24 +70,23 @@ public class LineNotifyClient {
                                 .customCodecs()
                                 .registerWithDefaultConfig(new Jackson2JsonDecoder(objectMapper)))
                     .build())
-            .clientConnector(createConnector(OAUTH_BASE_URL))
+            .filter(new LineCallMetrics(meterRegistry, "line-notify-oauth"))
+            .clientConnector(
+                new ReactorClientHttpConnector(
+                    httpClientFactory.create("line-notify-oauth", botBaseUrl)))
             .build();
     this.notificationWebClient =
-        webClientBuilder.clone().clientConnector(createConnector(NOTIFICATION_BASE_URL)).build();
-  }
-
-  private ReactorClientHttpConnector createConnector(String oauthBaseUrl) {
-    return new ReactorClientHttpConnector(
-        HttpClient.create()
-            .baseUrl(oauthBaseUrl)
-            .keepAlive(true)
-            .followRedirect(true)
-            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-            .headers(builder -> builder.add(HttpHeaderNames.USER_AGENT, USER_AGENT)));
+        webClientBuilder
+            .clone()
+            .filter(new LineCallMetrics(meterRegistry, "line-notify-api"))
+            .clientConnector(
+                new ReactorClientHttpConnector(
+                    httpClientFactory.create("line-notify-api", apiBaseUrl)))
+            .build();
   }
 
   public URI getRedirectUri(String state) {
-    return new DefaultUriBuilderFactory(OAUTH_BASE_URL + "/authorize")
+    return new DefaultUriBuilderFactory(botBaseUrl + "/oauth/authorize")
         .builder()
         .queryParam("response_type", "code")
         .queryParam("client_id", clientId)
@@ -92,10 +106,11 @@ public class LineNotifyClient {
     formData.add("code", code);
     return oauthWebClient
         .post()
-        .uri("/token")
+        .uri("/oauth/token")
         .bodyValue(formData)
         .retrieve()
         .bodyToMono(AccessTokenResponse.class)
+        .transform(oauthPolicy::apply)
         .map(AccessTokenResponse::getAccessToken)
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
   }
@@ -103,13 +118,26 @@ public class LineNotifyClient {
   public Mono<String> notify(String accessToken, String message) {
     var formData = new LinkedMultiValueMap<>();
     formData.add("message", message);
-    return notificationWebClient
-        .post()
-        .uri("/notify")
-        .headers(headers -> headers.setBearerAuth(accessToken))
-        .bodyValue(formData)
-        .retrieve()
-        .bodyToMono(BasicResponse.class)
+    // deferred, so a retry after a 429 waits for the budget reported by LINE
+    return Mono.defer(() -> rateLimiter.acquire(accessToken))
+        .then(
+            notificationWebClient
+                .post()
+                .uri("/api/notify")
+                .headers(headers -> headers.setBearerAuth(accessToken))
+                .bodyValue(formData)
+                .retrieve()
+                .toEntity(BasicResponse.class)
+                // a call rejected by the local rate limiter never reaches the breaker
+                .transform(notifyPolicy::protect))
+        .doOnNext(
+            entity ->
+                rateLimiter.update(accessToken, entity.getStatusCode(), entity.getHeaders()))
+        .doOnError(
+            WebClientResponseException.class,
+            e -> rateLimiter.update(accessToken, e.getStatusCode(), e.getHeaders()))
+        .transform(notifyPolicy::retry)
+        .mapNotNull(ResponseEntity::getBody)
         .filter(response -> HttpStatus.OK.value() == response.getStatus())
         .map(BasicResponse::getMessage)
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
@@ -118,25 +146,26 @@ public class LineNotifyClient {
   public Mono<RegistrationKey> getStatus(String accessToken) {
     return notificationWebClient
         .get()
-        .uri("/status")
+        .uri("/api/status")
         .headers(headers -> headers.setBearerAuth(accessToken))
         .retrieve()
         .bodyToMono(StatusResponse.class)
+        .transform(apiPolicy::apply)
         .map(
             statusResponse ->
-                new RegistrationKey()
-                    .setTargetType(statusResponse.getTargetType())
-                    .setTarget(statusResponse.getTarget()))
+                RegistrationKey.of(
+                    null, statusResponse.getTargetType(), statusResponse.getTarget()))
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
   }
 
   public Mono<String> revokeAccessToken(String accessToken) {
     return notificationWebClient
         .post()
-        .uri("/revoke")
+        .uri("/api/revoke")
         .headers(headers -> headers.setBearerAuth(accessToken))
         .retrieve()
         .bodyToMono(BasicResponse.class)
+        .transform(apiPolicy::apply)
         .filter(response -> HttpStatus.OK.value() == response.getStatus())
         .map(BasicResponse::getMessage)
         .doOnError(throwable -> log.error(throwable.getMessage(), throwable));
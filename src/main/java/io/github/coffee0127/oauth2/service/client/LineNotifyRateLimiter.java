@@ -0,0 +1,109 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Per access token budget of LINE Notify API calls, learned from the {@code X-RateLimit-*} headers
+ * of previous responses. Tokens never seen before are not limited until LINE reports a budget.
+ */
+@Slf4j
+@Component
+public class LineNotifyRateLimiter {
+
+  private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+  private static final String RESET_HEADER = "X-RateLimit-Reset";
+
+  /** key is accessToken and value is its budget in the current rate limit window. */
+  private final Cache<String, Budget> budgets;
+
+  private final long maxWaitMillis;
+
+  public LineNotifyRateLimiter(
+      @Value("${line.notify.rateLimit.maxWait:5s}") Duration maxWait) {
+    this.budgets = Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(2)).build();
+    this.maxWaitMillis = maxWait.toMillis();
+  }
+
+  /**
+   * Completes once a call with {@code accessToken} fits in its budget. Waits for the window to reset
+   * when that happens within {@code line.notify.rateLimit.maxWait}, otherwise fails with {@link
+   * RateLimitExceededException} without calling LINE.
+   */
+  public Mono<Void> acquire(String accessToken) {
+    var budget = budgets.getIfPresent(accessToken);
+    if (budget == null) {
+      return Mono.empty();
+    }
+    var waitMillis = budget.tryAcquire(System.currentTimeMillis());
+    if (waitMillis == 0) {
+      return Mono.empty();
+    }
+    if (waitMillis > maxWaitMillis) {
+      return Mono.error(
+          new RateLimitExceededException(Instant.ofEpochMilli(budget.resetTimeMillis)));
+    }
+    log.debug("Rate limit reached, wait {} ms", waitMillis);
+    return Mono.delay(Duration.ofMillis(waitMillis)).then(Mono.defer(() -> acquire(accessToken)));
+  }
+
+  /** Records the budget reported by LINE Notify in a response for {@code accessToken}. */
+  public void update(String accessToken, HttpStatus status, HttpHeaders headers) {
+    var resetTimeSeconds = NumberUtils.toLong(headers.getFirst(RESET_HEADER), -1);
+    if (resetTimeSeconds < 0) {
+      return;
+    }
+    var remaining =
+        status == HttpStatus.TOO_MANY_REQUESTS
+            ? 0
+            : NumberUtils.toLong(headers.getFirst(REMAINING_HEADER), -1);
+    if (remaining < 0) {
+      return;
+    }
+    budgets.get(accessToken, key -> new Budget()).update(remaining, resetTimeSeconds * 1000);
+  }
+
+  private static final class Budget {
+
+    private final AtomicLong remaining = new AtomicLong();
+    private volatile long resetTimeMillis;
+
+    /** @return {@code 0} if a call was granted, otherwise milliseconds until the window resets. */
+    private long tryAcquire(long now) {
+      while (true) {
+        var resetTime = resetTimeMillis;
+        if (now >= resetTime) {
+          // a new window has started, LINE will tell the new budget in the next response
+          return 0;
+        }
+        var current = remaining.get();
+        if (current <= 0) {
+          return resetTime - now;
+        }
+        if (remaining.compareAndSet(current, current - 1)) {
+          return 0;
+        }
+      }
+    }
+
+    private void update(long reportedRemaining, long reportedResetTimeMillis) {
+      if (reportedResetTimeMillis != resetTimeMillis) {
+        remaining.set(reportedRemaining);
+        resetTimeMillis = reportedResetTimeMillis;
+      } else {
+        // calls still in flight were already taken from the local budget
+        remaining.accumulateAndGet(reportedRemaining, Math::min);
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package io.github.coffee0127.oauth2.service.client;
+
+import java.time.Instant;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class RateLimitExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Instant resetTime;
+
+  public RateLimitExceededException(Instant resetTime) {
+    super("Rate limit exceeded until " + resetTime);
+    this.resetTime = resetTime;
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.coffee0127.oauth2.service.dao;
+
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+/**
+ * Hands the changes of a {@link RegistrationDao} to every current subscriber. A subscriber falling
+ * more than {@link #BUFFER_SIZE} changes behind is terminated with an overflow error instead of
+ * slowing down the writers, and is expected to reload and subscribe again.
+ */
+public class RegistrationChangePublisher {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  private final Sinks.Many<RegistrationChange> sink = Sinks.many().multicast().directBestEffort();
+
+  /** Publishes outside of any lock, subscribers may run on the calling thread. */
+  public void publish(RegistrationChange change) {
+    // without subscribers the change is simply dropped
+    EmitResult result;
+    do {
+      result = sink.tryEmitNext(change);
+    } while (result == EmitResult.FAIL_NON_SERIALIZED);
+  }
+
+  public Flux<RegistrationChange> changes() {
+    return sink.asFlux().onBackpressureBuffer(BUFFER_SIZE);
+  }
+}
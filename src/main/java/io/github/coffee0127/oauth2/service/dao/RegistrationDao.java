@@ -1,19 +1,59 @@
 package io.github.coffee0127.oauth2.service.dao;
 
 import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface RegistrationDao {
 
+  /** Order of {@link #findPage}. */
+  Comparator<RegistrationKey> KEY_ORDER =
+      Comparator.comparing(RegistrationKey::getUserId)
+          .thenComparing(RegistrationKey::getTargetType)
+          .thenComparing(RegistrationKey::getTarget);
+
   Mono<List<Registration>> findAll();
 
+  /**
+   * Streams at most {@code limit} registrations in {@link #KEY_ORDER}, following {@code after}.
+   *
+   * @param after key of the last registration of the previous page, {@code null} for the first page
+   */
+  Flux<Registration> findPage(RegistrationKey after, int limit);
+
   Mono<List<Registration>> find(String userId);
 
+  Mono<List<Registration>> findByTargetType(String targetType);
+
+  Mono<List<Registration>> findByTarget(String target);
+
   Mono<Registration> findOne(RegistrationKey registrationKey);
 
   Mono<Registration> save(Registration registration);
 
   Mono<Void> delete(RegistrationKey registrationKey);
+
+  /** Deletes registrations which reached their expiry time. */
+  Mono<Void> expireAll(Collection<RegistrationKey> registrationKeys);
+
+  /**
+   * Claims expired registrations for their revocation, so that of the instances sharing a store
+   * only one revokes each. A claim lasts until {@code leaseUntil}, then the registration can be
+   * claimed again.
+   *
+   * @return the registrations claimed by this call
+   */
+  Flux<Registration> claimExpired(Collection<Registration> registrations, Instant leaseUntil);
+
+  /**
+   * Streams the saves, deletes and expiries made through this instance from the subscription on,
+   * see {@link RegistrationChangePublisher}.
+   */
+  Flux<RegistrationChange> changes();
 }
@@ -0,0 +1,22 @@
+package io.github.coffee0127.oauth2.service.dao;
+
+import java.time.Duration;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stores serialized web sessions. Entries expire once {@code ttl} has passed since they were last
+ * saved or touched; a negative {@code ttl} keeps them until deleted.
+ */
+public interface SessionDao {
+  Mono<byte[]> find(String sessionId);
+
+  Mono<Void> save(String sessionId, byte[] data, Duration ttl);
+
+  /** Restarts the expiry of an unchanged session without rewriting it. */
+  Mono<Void> touch(String sessionId, Duration ttl);
+
+  /** Rewrites a stored session but keeps its expiry; an expired or deleted session stays gone. */
+  Mono<Void> update(String sessionId, byte[] data);
+
+  Mono<Void> delete(String sessionId);
+}
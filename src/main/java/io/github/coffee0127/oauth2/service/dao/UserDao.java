@@ -1,11 +1,16 @@
 package io.github.coffee0127.oauth2.service.dao;
 
 import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.util.Collection;
+import java.util.Map;
 import reactor.core.publisher.Mono;
 
 public interface UserDao {
   Mono<UserPrincipal> find(String userId);
 
+  /** @return users found by userId, without entries for unknown users */
+  Mono<Map<String, UserPrincipal>> findAll(Collection<String> userIds);
+
   Mono<UserPrincipal> save(UserPrincipal userPrincipal);
 
   Mono<Void> delete(String userId);
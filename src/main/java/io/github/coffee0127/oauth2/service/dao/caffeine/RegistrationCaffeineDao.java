@@ -3,67 +3,142 @@ package io.github.coffee0127.oauth2.service.dao.caffeine;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
+import io.github.coffee0127.oauth2.objects.RegistrationChange.Type;
 import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import io.github.coffee0127.oauth2.service.dao.RegistrationChangePublisher;
 import io.github.coffee0127.oauth2.service.dao.RegistrationDao;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Slf4j
+@Profile("!file-store & !r2dbc")
 @Component
-public class RegistrationCaffeineDao implements RegistrationDao {
+public class RegistrationCaffeineDao implements RegistrationDao, MeterBinder {
+
+  private static final Comparator<Registration> REGISTRATION_ORDER =
+      Comparator.comparing(Registration::getRegistrationKey, KEY_ORDER);
 
   /** key is userId and value is registrations. */
   private final Cache<String, Map<RegistrationKey, Registration>> storage;
 
+  /** key is targetType and value is keys of registrations. */
+  private final Map<String, Set<RegistrationKey>> targetTypeIndex;
+
+  /** key is target and value is keys of registrations. */
+  private final Map<String, Set<RegistrationKey>> targetIndex;
+
+  /** userIds in storage, sorted for paging. */
+  private final NavigableSet<String> userIds;
+
+  private final AtomicLong registrationCount = new AtomicLong();
+
+  private final RegistrationChangePublisher changePublisher = new RegistrationChangePublisher();
+
   public RegistrationCaffeineDao() {
-    storage = Caffeine.newBuilder().build();
+    storage = Caffeine.newBuilder().recordStats().build();
+    targetTypeIndex = new ConcurrentHashMap<>();
+    targetIndex = new ConcurrentHashMap<>();
+    userIds = new ConcurrentSkipListSet<>();
   }
 
   @Override
   public Mono<List<Registration>> findAll() {
-    return Mono.just(
-        storage.asMap().values().stream()
-            .map(Map::entrySet)
-            .flatMap(Collection::stream)
-            .map(Entry::getValue)
-            .map(Registration::new)
-            .collect(Collectors.toList()));
+    return Mono.fromSupplier(
+        () ->
+            storage.asMap().values().stream()
+                .map(Map::values)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList()));
+  }
+
+  @Override
+  public Flux<Registration> findPage(RegistrationKey after, int limit) {
+    return Flux.defer(
+        () -> {
+          var pageUserIds = after == null ? userIds : userIds.tailSet(after.getUserId(), true);
+          return Flux.fromStream(
+              pageUserIds.stream()
+                  .flatMap(
+                      userId ->
+                          Optional.ofNullable(storage.asMap().get(userId))
+                              .map(Map::values)
+                              .orElseGet(Collections::emptyList)
+                              .stream()
+                              .sorted(REGISTRATION_ORDER))
+                  .filter(
+                      registration ->
+                          after == null
+                              || KEY_ORDER.compare(registration.getRegistrationKey(), after) > 0)
+                  .limit(limit));
+        });
   }
 
   @Override
   public Mono<List<Registration>> find(String userId) {
-    return Mono.just(
-        storage.asMap().entrySet().stream()
-            .filter(entry -> entry.getKey().equals(userId))
-            .map(Entry::getValue)
-            .map(Map::entrySet)
-            .flatMap(Collection::stream)
-            .map(Entry::getValue)
-            .map(Registration::new)
-            .collect(Collectors.toList()));
+    return Mono.fromSupplier(
+        () ->
+            Optional.ofNullable(storage.getIfPresent(userId))
+                .map(Map::values)
+                .orElseGet(Collections::emptyList)
+                .stream()
+                .collect(Collectors.toList()));
+  }
+
+  @Override
+  public Mono<List<Registration>> findByTargetType(String targetType) {
+    return Mono.fromSupplier(() -> lookup(targetTypeIndex.get(targetType)));
+  }
+
+  @Override
+  public Mono<List<Registration>> findByTarget(String target) {
+    return Mono.fromSupplier(() -> lookup(targetIndex.get(target)));
+  }
+
+  private List<Registration> lookup(Set<RegistrationKey> registrationKeys) {
+    if (registrationKeys == null) {
+      return Collections.emptyList();
+    }
+    return registrationKeys.stream()
+        .map(
+            registrationKey ->
+                Optional.ofNullable(storage.getIfPresent(registrationKey.getUserId()))
+                    .map(registrations -> registrations.get(registrationKey))
+                    .orElse(null))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
   }
 
   @Override
   public Mono<Registration> save(Registration registration) {
     return Mono.fromSupplier(
         () -> {
-          var userId = registration.getRegistrationKey().getUserId();
-          var registrations =
-              Optional.ofNullable(storage.getIfPresent(userId)).orElseGet(HashMap::new);
-          registration.setCreateTime(Instant.now());
-          registrations.putIfAbsent(registration.getRegistrationKey(), registration);
-          storage.put(userId, registrations);
-          return registration;
+          var saved = registration.createdAt(Instant.now());
+          put(saved, true);
+          return saved;
         });
   }
 
@@ -76,17 +151,151 @@ public class RegistrationCaffeineDao implements RegistrationDao {
 
   @Override
   public Mono<Void> delete(RegistrationKey registrationKey) {
-    return Mono.fromRunnable(
-        () -> {
-          var userId = registrationKey.getUserId();
-          var registrations =
-              Optional.ofNullable(storage.getIfPresent(userId)).orElseGet(Collections::emptyMap);
-          registrations.remove(registrationKey);
-          if (registrations.isEmpty()) {
-            storage.invalidate(userId);
-          } else {
-            storage.put(userId, registrations);
+    return Mono.fromRunnable(() -> remove(List.of(registrationKey), Type.DELETED));
+  }
+
+  @Override
+  public Mono<Void> expireAll(Collection<RegistrationKey> registrationKeys) {
+    return Mono.fromRunnable(() -> remove(registrationKeys, Type.EXPIRED));
+  }
+
+  /** No other instance shares this store, so every registration is claimed. */
+  @Override
+  public Flux<Registration> claimExpired(
+      Collection<Registration> registrations, Instant leaseUntil) {
+    return Flux.fromIterable(registrations);
+  }
+
+  @Override
+  public Flux<RegistrationChange> changes() {
+    return changePublisher.changes();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, storage, "registrations");
+    Gauge.builder("registrations.count", registrationCount, AtomicLong::get)
+        .description("Number of stored registrations")
+        .register(registry);
+  }
+
+  /**
+   * Puts a registration as it is, keeping its timestamps, without calling {@link #onSave} or
+   * publishing a change.
+   */
+  protected void restore(Registration registration) {
+    put(registration, false);
+  }
+
+  /** Removes a registration without calling {@link #onDelete} or publishing a change. */
+  protected void restoreDeletion(RegistrationKey registrationKey) {
+    remove(List.of(registrationKey), null);
+  }
+
+  /** Called atomically with storing a new registration, before other writers of the same user. */
+  protected void onSave(Registration registration) {}
+
+  /** Called atomically with removing a registration, before other writers of the same user. */
+  protected void onDelete(RegistrationKey registrationKey) {}
+
+  private void put(Registration registration, boolean notify) {
+    var registrationKey = registration.getRegistrationKey();
+    var inserted = new AtomicBoolean();
+    storage
+        .asMap()
+        .compute(
+            registrationKey.getUserId(),
+            (userId, registrations) -> {
+              if (registrations == null) {
+                registrations = new ConcurrentHashMap<>();
+                userIds.add(userId);
+              }
+              if (registrations.putIfAbsent(registrationKey, registration) == null) {
+                registrationCount.incrementAndGet();
+                index(targetTypeIndex, registrationKey.getTargetType(), registrationKey);
+                index(targetIndex, registrationKey.getTarget(), registrationKey);
+                if (notify) {
+                  onSave(registration);
+                }
+                inserted.set(true);
+              }
+              return registrations;
+            });
+    if (notify && inserted.get()) {
+      changePublisher.publish(RegistrationChange.saved(registration));
+    }
+  }
+
+  /** @param changeType change to publish, {@code null} to restore a deletion silently */
+  private void remove(Collection<RegistrationKey> registrationKeys, Type changeType) {
+    var removed = new ArrayList<RegistrationKey>(registrationKeys.size());
+    registrationKeys.stream()
+        .collect(Collectors.groupingBy(RegistrationKey::getUserId))
+        .forEach(
+            (userId, userRegistrationKeys) ->
+                storage
+                    .asMap()
+                    .computeIfPresent(
+                        userId,
+                        (unused, registrations) -> {
+                          for (var registrationKey : userRegistrationKeys) {
+                            if (registrations.remove(registrationKey) != null) {
+                              registrationCount.decrementAndGet();
+                              unindex(
+                                  targetTypeIndex, registrationKey.getTargetType(), registrationKey);
+                              unindex(targetIndex, registrationKey.getTarget(), registrationKey);
+                              if (changeType != null) {
+                                onDelete(registrationKey);
+                                removed.add(registrationKey);
+                              }
+                            }
+                          }
+                          if (registrations.isEmpty()) {
+                            userIds.remove(userId);
+                            return null;
+                          }
+                          return registrations;
+                        }));
+    removed.forEach(
+        registrationKey ->
+            changePublisher.publish(RegistrationChange.removed(changeType, registrationKey)));
+  }
+
+  private static void index(
+      Map<String, Set<RegistrationKey>> index, String value, RegistrationKey registrationKey) {
+    if (value == null) {
+      return;
+    }
+    index.compute(
+        value,
+        (unused, registrationKeys) -> {
+          // most targets belong to a single registration, only pay for a concurrent set once shared
+          if (registrationKeys == null) {
+            return Collections.singleton(registrationKey);
+          }
+          if (!(registrationKeys instanceof ConcurrentHashMap.KeySetView)) {
+            Set<RegistrationKey> shared = ConcurrentHashMap.newKeySet();
+            shared.addAll(registrationKeys);
+            registrationKeys = shared;
+          }
+          registrationKeys.add(registrationKey);
+          return registrationKeys;
+        });
+  }
+
+  private static void unindex(
+      Map<String, Set<RegistrationKey>> index, String value, RegistrationKey registrationKey) {
+    if (value == null) {
+      return;
+    }
+    index.computeIfPresent(
+        value,
+        (unused, registrationKeys) -> {
+          if (!(registrationKeys instanceof ConcurrentHashMap.KeySetView)) {
+            return registrationKeys.contains(registrationKey) ? null : registrationKeys;
           }
+          registrationKeys.remove(registrationKey);
+          return registrationKeys.isEmpty() ? null : registrationKeys;
         });
   }
 }
@@ -0,0 +1,109 @@
+package io.github.coffee0127.oauth2.service.dao.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.github.coffee0127.oauth2.service.dao.SessionDao;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/** In-process session storage for single-node deployments. */
+@Profile("!redis-session")
+@Component
+public class SessionCaffeineDao implements SessionDao, MeterBinder {
+
+  /** Time to live of an entry that keeps the expiry of the entry it replaces. */
+  private static final long KEEP_TTL = -1;
+
+  /** key is sessionId and value is the serialized session with its time to live. */
+  private final Cache<String, Entry> storage;
+
+  public SessionCaffeineDao(@Value("${session.store.maximumSize:100000}") long maximumSize) {
+    storage =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .expireAfter(
+                new Expiry<String, Entry>() {
+                  @Override
+                  public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                    return entry.ttlNanos;
+                  }
+
+                  @Override
+                  public long expireAfterUpdate(
+                      String key, Entry entry, long currentTime, long currentDuration) {
+                    return entry.ttlNanos == KEEP_TTL ? currentDuration : entry.ttlNanos;
+                  }
+
+                  @Override
+                  public long expireAfterRead(
+                      String key, Entry entry, long currentTime, long currentDuration) {
+                    return currentDuration;
+                  }
+                })
+            .build();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, storage, "sessions");
+  }
+
+  @Override
+  public Mono<byte[]> find(String sessionId) {
+    return Mono.fromSupplier(
+        () -> {
+          var entry = storage.getIfPresent(sessionId);
+          return entry == null ? null : entry.data;
+        });
+  }
+
+  @Override
+  public Mono<Void> save(String sessionId, byte[] data, Duration ttl) {
+    return Mono.fromRunnable(() -> storage.put(sessionId, new Entry(data, ttlNanos(ttl))));
+  }
+
+  @Override
+  public Mono<Void> touch(String sessionId, Duration ttl) {
+    return Mono.fromRunnable(
+        () ->
+            storage
+                .policy()
+                .expireVariably()
+                .ifPresent(
+                    expiration ->
+                        expiration.setExpiresAfter(
+                            sessionId, ttlNanos(ttl), TimeUnit.NANOSECONDS)));
+  }
+
+  @Override
+  public Mono<Void> update(String sessionId, byte[] data) {
+    return Mono.fromRunnable(
+        () ->
+            storage.asMap().computeIfPresent(sessionId, (key, entry) -> new Entry(data, KEEP_TTL)));
+  }
+
+  @Override
+  public Mono<Void> delete(String sessionId) {
+    return Mono.fromRunnable(() -> storage.invalidate(sessionId));
+  }
+
+  private static long ttlNanos(Duration ttl) {
+    return ttl.isNegative() ? Long.MAX_VALUE : ttl.toNanos();
+  }
+
+  @AllArgsConstructor
+  private static class Entry {
+    private final byte[] data;
+    private final long ttlNanos;
+  }
+}
@@ -4,18 +4,30 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import io.github.coffee0127.oauth2.objects.UserPrincipal;
 import io.github.coffee0127.oauth2.service.dao.UserDao;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+@Profile("!r2dbc")
 @Component
-public class UserCaffeineDao implements UserDao {
+public class UserCaffeineDao implements UserDao, MeterBinder {
 
   /** key is userId and value is userPrincipal. */
   private final Cache<String, UserPrincipal> storage;
 
   public UserCaffeineDao() {
-    storage = Caffeine.newBuilder().build();
+    storage = Caffeine.newBuilder().recordStats().build();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, storage, "users");
   }
 
   @Override
@@ -23,6 +35,11 @@ public class UserCaffeineDao implements UserDao {
     return Mono.justOrEmpty(Optional.ofNullable(storage.getIfPresent(userId)));
   }
 
+  @Override
+  public Mono<Map<String, UserPrincipal>> findAll(Collection<String> userIds) {
+    return Mono.fromSupplier(() -> storage.getAllPresent(userIds));
+  }
+
   @Override
   public Mono<UserPrincipal> save(UserPrincipal userPrincipal) {
     return Mono.fromSupplier(
@@ -0,0 +1,353 @@
+package io.github.coffee0127.oauth2.service.dao.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Append-only record log on memory-mapped files with group commit.
+ *
+ * <p>Records are written by a single writer thread. Every {@link #flush()} issued while a batch is
+ * being collected is completed by the same {@code force()}, so concurrent writers share one disk
+ * sync. Once {@code compactionThreshold} records have been appended, the live state returned by the
+ * snapshot supplier is written to a new generation that atomically replaces the current one.
+ *
+ * <p>Each file is a sequence of fixed-size regions holding {@code [length][crc32][payload]}
+ * records. A record never crosses a region boundary; a length of {@code -1} pads the rest of a
+ * region and a length of {@code 0} marks the end of the log.
+ */
+@Slf4j
+public class AppendOnlyLog implements Closeable {
+
+  private static final int HEADER_BYTES = Integer.BYTES * 2;
+  private static final int PADDING = -1;
+  private static final int MAX_BATCH = 4096;
+
+  private final Path directory;
+  private final String name;
+  private final Pattern fileNamePattern;
+  private final int regionBytes;
+  private final long compactionThreshold;
+  private final Supplier<Iterable<byte[]>> snapshot;
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+
+  private volatile boolean running;
+  private long generation;
+  private Segment segment;
+  private long appendedSinceCompaction;
+
+  /**
+   * @param directory directory holding the log files, created when missing
+   * @param name file name prefix of the log
+   * @param regionBytes size of each memory-mapped region, bounds the size of a single record
+   * @param compactionThreshold number of appended records that triggers a compaction
+   * @param snapshot supplies the records describing the current live state, called on the writer
+   *     thread during compaction
+   */
+  public AppendOnlyLog(
+      Path directory,
+      String name,
+      int regionBytes,
+      long compactionThreshold,
+      Supplier<Iterable<byte[]>> snapshot)
+      throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.name = name;
+    this.fileNamePattern = Pattern.compile(Pattern.quote(name) + "-(\\d+)\\.log");
+    this.regionBytes = regionBytes;
+    this.compactionThreshold = compactionThreshold;
+    this.snapshot = snapshot;
+    this.writer = new Thread(this::run, name + "-log-writer");
+    this.writer.setDaemon(true);
+    this.generation = cleanUp();
+  }
+
+  /**
+   * Feeds every valid record of the current generation to {@code consumer}, discards a torn tail
+   * left by a crash and starts the writer thread. Must be called once before appending.
+   */
+  public void open(Consumer<ByteBuffer> consumer) throws IOException {
+    var file = file(generation);
+    var position = Files.exists(file) ? replay(file, consumer) : 0L;
+    segment = new Segment(file, position);
+    running = true;
+    writer.start();
+    log.info("Opened {} at generation {}, position {}", name, generation, position);
+  }
+
+  /**
+   * Queues a record; it becomes durable with the next completed {@link #flush()}.
+   *
+   * @throws IllegalStateException when the log is not open or already closed
+   */
+  public void append(byte[] record) {
+    if (record.length + HEADER_BYTES > regionBytes) {
+      throw new IllegalArgumentException("Record too large: " + record.length + " bytes");
+    }
+    if (!enqueue(new Entry(record, null))) {
+      throw notRunning();
+    }
+  }
+
+  /**
+   * Completes once every record appended by the calling thread so far is on disk, fails with
+   * {@link IllegalStateException} when the log is not open or already closed.
+   */
+  public Mono<Void> flush() {
+    return Mono.create(
+        sink -> {
+          if (!enqueue(new Entry(null, sink))) {
+            sink.error(notRunning());
+          }
+        });
+  }
+
+  /** @return whether the writer thread is going to take the entry */
+  private boolean enqueue(Entry entry) {
+    queue.add(entry);
+    // the writer stops taking entries once the log is closed, take back what it did not take
+    return running || !queue.remove(entry);
+  }
+
+  private IllegalStateException notRunning() {
+    return new IllegalStateException("Log " + name + " is not open");
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (segment != null) {
+      segment.close();
+    }
+  }
+
+  private void run() {
+    var batch = new ArrayList<Entry>();
+    while (running || !queue.isEmpty()) {
+      try {
+        var first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, MAX_BATCH - 1);
+        commit(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (IOException | RuntimeException e) {
+        log.error("Write {} failed", name, e);
+        batch.stream()
+            .map(entry -> entry.sink)
+            .filter(Objects::nonNull)
+            .forEach(sink -> sink.error(e));
+      } finally {
+        batch.clear();
+      }
+      if (appendedSinceCompaction >= compactionThreshold) {
+        try {
+          compact();
+        } catch (IOException | RuntimeException e) {
+          // the committed records stay in the current generation, try again after as many appends
+          log.error("Compact {} failed", name, e);
+          appendedSinceCompaction = 0;
+        }
+      }
+    }
+  }
+
+  private void commit(List<Entry> batch) throws IOException {
+    var written = 0;
+    for (var entry : batch) {
+      if (entry.record != null) {
+        segment.write(entry.record);
+        written++;
+      }
+    }
+    if (written > 0) {
+      segment.force();
+      appendedSinceCompaction += written;
+    }
+    for (var entry : batch) {
+      if (entry.sink != null) {
+        entry.sink.success();
+      }
+    }
+  }
+
+  private void compact() throws IOException {
+    var next = generation + 1;
+    var tmp = directory.resolve(file(next).getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+    var compacted = new Segment(tmp, 0);
+    try {
+      var records = 0;
+      for (var record : snapshot.get()) {
+        compacted.write(record);
+        records++;
+      }
+      compacted.force();
+      Files.move(tmp, file(next), StandardCopyOption.ATOMIC_MOVE);
+      log.info("Compacted {} into generation {} with {} records", name, next, records);
+    } catch (IOException | RuntimeException e) {
+      compacted.close();
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    var previous = segment;
+    segment = compacted;
+    generation = next;
+    appendedSinceCompaction = 0;
+    previous.close();
+    Files.deleteIfExists(file(next - 1));
+  }
+
+  /** Removes leftovers of interrupted compactions and returns the current generation. */
+  private long cleanUp() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      var names = files.map(Path::getFileName).map(Path::toString).collect(Collectors.toList());
+      var current =
+          names.stream()
+              .map(fileNamePattern::matcher)
+              .filter(matcher -> matcher.matches())
+              .mapToLong(matcher -> Long.parseLong(matcher.group(1)))
+              .max()
+              .orElse(0L);
+      for (var fileName : names) {
+        var matcher = fileNamePattern.matcher(fileName);
+        var stale =
+            fileName.startsWith(name + "-") && fileName.endsWith(".log.tmp")
+                || matcher.matches() && Long.parseLong(matcher.group(1)) < current;
+        if (stale) {
+          Files.delete(directory.resolve(fileName));
+        }
+      }
+      return current;
+    }
+  }
+
+  private long replay(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+    var crc = new CRC32();
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var size = channel.size();
+      for (long regionStart = 0; regionStart < size; regionStart += regionBytes) {
+        var region =
+            channel.map(MapMode.READ_ONLY, regionStart, Math.min(regionBytes, size - regionStart));
+        while (region.remaining() >= HEADER_BYTES) {
+          var position = region.position();
+          var length = region.getInt();
+          if (length == PADDING) {
+            break;
+          }
+          var checksum = region.getInt();
+          if (length <= 0 || length > region.remaining()) {
+            return regionStart + position;
+          }
+          var payload = region.slice().limit(length);
+          crc.reset();
+          crc.update(payload.duplicate());
+          if ((int) crc.getValue() != checksum) {
+            log.warn("Discard torn tail of {} at {}", file, regionStart + position);
+            return regionStart + position;
+          }
+          consumer.accept(payload.asReadOnlyBuffer());
+          region.position(position + HEADER_BYTES + length);
+        }
+      }
+      return size;
+    }
+  }
+
+  private Path file(long generation) {
+    return directory.resolve(name + "-" + generation + ".log");
+  }
+
+  private static final class Entry {
+    private final byte[] record;
+    private final MonoSink<Void> sink;
+
+    private Entry(byte[] record, MonoSink<Void> sink) {
+      this.record = record;
+      this.sink = sink;
+    }
+  }
+
+  /** One log file, written through a memory-mapped region that moves forward as it fills up. */
+  private final class Segment implements Closeable {
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    private Segment(Path file, long position) throws IOException {
+      channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      regionStart = position - position % regionBytes;
+      // drop a torn tail and anything after it, then continue in the region it was found in
+      if (channel.size() > regionStart + regionBytes) {
+        channel.truncate(regionStart + regionBytes);
+      }
+      region = channel.map(MapMode.READ_WRITE, regionStart, regionBytes);
+      region.position((int) (position - regionStart));
+      var zeros = new byte[8192];
+      while (region.hasRemaining()) {
+        region.put(zeros, 0, Math.min(zeros.length, region.remaining()));
+      }
+      region.position((int) (position - regionStart));
+    }
+
+    private void write(byte[] record) throws IOException {
+      if (region.remaining() < HEADER_BYTES + record.length) {
+        if (region.remaining() >= Integer.BYTES) {
+          region.putInt(PADDING);
+        }
+        region.force();
+        regionStart += regionBytes;
+        region = channel.map(MapMode.READ_WRITE, regionStart, regionBytes);
+      }
+      crc.reset();
+      crc.update(record);
+      region.putInt(record.length).putInt((int) crc.getValue()).put(record);
+    }
+
+    private void force() {
+      region.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+      region.force();
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package io.github.coffee0127.oauth2.service.dao.file;
+
+import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import io.github.coffee0127.oauth2.service.dao.caffeine.RegistrationCaffeineDao;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps registrations in memory like {@link RegistrationCaffeineDao} and records every change in an
+ * {@link AppendOnlyLog} on local disk, so they survive restarts. Writes complete once their record
+ * has been committed.
+ */
+@Slf4j
+@Profile("file-store")
+@Component
+public class RegistrationFileDao extends RegistrationCaffeineDao {
+
+  private final AppendOnlyLog journal;
+
+  public RegistrationFileDao(
+      @Value("${registration.store.directory:data}") Path directory,
+      @Value("${registration.store.regionSize:64MB}") DataSize regionSize,
+      @Value("${registration.store.compactionThreshold:100000}") long compactionThreshold)
+      throws IOException {
+    this.journal =
+        new AppendOnlyLog(
+            directory,
+            "registrations",
+            (int) regionSize.toBytes(),
+            compactionThreshold,
+            this::snapshot);
+    var startTime = System.nanoTime();
+    journal.open(this::replay);
+    log.info("Recovered registrations in {} ms", (System.nanoTime() - startTime) / 1_000_000);
+  }
+
+  @Override
+  public Mono<Registration> save(Registration registration) {
+    return super.save(registration).flatMap(saved -> journal.flush().thenReturn(saved));
+  }
+
+  @Override
+  public Mono<Void> delete(RegistrationKey registrationKey) {
+    return super.delete(registrationKey).then(journal.flush());
+  }
+
+  @Override
+  public Mono<Void> expireAll(Collection<RegistrationKey> registrationKeys) {
+    return super.expireAll(registrationKeys).then(journal.flush());
+  }
+
+  @Override
+  protected void onSave(Registration registration) {
+    journal.append(RegistrationRecords.save(registration));
+  }
+
+  @Override
+  protected void onDelete(RegistrationKey registrationKey) {
+    journal.append(RegistrationRecords.delete(registrationKey));
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    journal.close();
+  }
+
+  private void replay(ByteBuffer record) {
+    var type = record.get();
+    var registrationKey = RegistrationRecords.readKey(record);
+    if (type == RegistrationRecords.SAVE) {
+      restore(RegistrationRecords.readRegistration(registrationKey, record));
+    } else if (type == RegistrationRecords.DELETE) {
+      restoreDeletion(registrationKey);
+    }
+  }
+
+  /** Called on the log writer thread, which is allowed to block. */
+  private Iterable<byte[]> snapshot() {
+    List<Registration> registrations = findAll().block();
+    return registrations.stream().map(RegistrationRecords::save).collect(Collectors.toList());
+  }
+}
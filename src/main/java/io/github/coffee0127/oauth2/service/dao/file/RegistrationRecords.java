@@ -0,0 +1,93 @@
+package io.github.coffee0127.oauth2.service.dao.file;
+
+import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/** Binary layout of the registration log records. */
+class RegistrationRecords {
+
+  static final byte SAVE = 1;
+  static final byte DELETE = 2;
+
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private RegistrationRecords() {}
+
+  static byte[] save(Registration registration) {
+    var registrationKey = registration.getRegistrationKey();
+    var userId = bytes(registrationKey.getUserId());
+    var targetType = bytes(registrationKey.getTargetType());
+    var target = bytes(registrationKey.getTarget());
+    var accessToken = bytes(registration.getAccessToken());
+    var buffer =
+        ByteBuffer.allocate(
+            1 + size(userId) + size(targetType) + size(target) + size(accessToken) + Long.BYTES * 2);
+    buffer.put(SAVE);
+    put(buffer, userId);
+    put(buffer, targetType);
+    put(buffer, target);
+    put(buffer, accessToken);
+    buffer.putLong(millis(registration.getCreateTime()));
+    buffer.putLong(millis(registration.getExpiryTime()));
+    return buffer.array();
+  }
+
+  static byte[] delete(RegistrationKey registrationKey) {
+    var userId = bytes(registrationKey.getUserId());
+    var targetType = bytes(registrationKey.getTargetType());
+    var target = bytes(registrationKey.getTarget());
+    var buffer = ByteBuffer.allocate(1 + size(userId) + size(targetType) + size(target));
+    buffer.put(DELETE);
+    put(buffer, userId);
+    put(buffer, targetType);
+    put(buffer, target);
+    return buffer.array();
+  }
+
+  static RegistrationKey readKey(ByteBuffer buffer) {
+    return RegistrationKey.of(readString(buffer), readString(buffer), readString(buffer));
+  }
+
+  /** Reads the rest of a {@link #SAVE} record after its key. */
+  static Registration readRegistration(RegistrationKey registrationKey, ByteBuffer buffer) {
+    return Registration.of(
+        registrationKey, readString(buffer), instant(buffer.getLong()), instant(buffer.getLong()));
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int size(byte[] value) {
+    return Integer.BYTES + (value == null ? 0 : value.length);
+  }
+
+  private static void put(ByteBuffer buffer, byte[] value) {
+    if (value == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(value.length).put(value);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    var length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    var value = new byte[length];
+    buffer.get(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  private static long millis(Instant instant) {
+    return instant == null ? NO_TIME : instant.toEpochMilli();
+  }
+
+  private static Instant instant(long millis) {
+    return millis == NO_TIME ? null : Instant.ofEpochMilli(millis);
+  }
+}
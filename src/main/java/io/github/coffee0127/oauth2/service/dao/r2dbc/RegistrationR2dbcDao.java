@@ -0,0 +1,368 @@
+package io.github.coffee0127.oauth2.service.dao.r2dbc;
+
+import io.github.coffee0127.oauth2.objects.Registration;
+import io.github.coffee0127.oauth2.objects.RegistrationChange;
+import io.github.coffee0127.oauth2.objects.RegistrationChange.Type;
+import io.github.coffee0127.oauth2.objects.RegistrationKey;
+import io.github.coffee0127.oauth2.service.dao.RegistrationChangePublisher;
+import io.github.coffee0127.oauth2.service.dao.RegistrationDao;
+import io.r2dbc.spi.R2dbcException;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+/**
+ * Stores registrations in a relational database. Concurrent saves are collected into short batches
+ * and written with one multi-binding statement per batch.
+ *
+ * <p>Like the other stores, saving a key that is already stored keeps the stored registration and
+ * publishes no change.
+ */
+@Slf4j
+@Profile("r2dbc")
+@Component
+public class RegistrationR2dbcDao implements RegistrationDao {
+
+  private static final String SELECT = "SELECT * FROM registration";
+  private static final String ORDER_BY = " ORDER BY user_id, target_type, target";
+  private static final String INSERT =
+      "INSERT INTO registration"
+          + " (user_id, target_type, target, access_token, create_time, expiry_time)"
+          + " SELECT $1, $2, $3, $4, $5, $6 WHERE NOT EXISTS"
+          + " (SELECT 1 FROM registration WHERE user_id = $1 AND target_type = $2 AND target = $3)";
+
+  /** SQL state of a unique constraint violation. */
+  private static final String UNIQUE_VIOLATION = "23505";
+
+  private static final String DELETE =
+      "DELETE FROM registration WHERE user_id = $1 AND target_type = $2 AND target = $3";
+  private static final String CLAIM =
+      "UPDATE registration SET expiry_time = $1"
+          + " WHERE user_id = $2 AND target_type = $3 AND target = $4 AND expiry_time <= $5";
+
+  private final DatabaseClient databaseClient;
+  private final Sinks.Many<PendingSave> pendingSaves;
+  private final Disposable subscription;
+  private final RegistrationChangePublisher changePublisher = new RegistrationChangePublisher();
+
+  public RegistrationR2dbcDao(
+      DatabaseClient databaseClient,
+      @Value("${registration.store.batchSize:100}") int batchSize,
+      @Value("${registration.store.batchWindow:5ms}") Duration batchWindow,
+      @Value("${registration.store.batchConcurrency:4}") int batchConcurrency) {
+    this.databaseClient = databaseClient;
+    this.pendingSaves = Sinks.many().unicast().onBackpressureBuffer();
+    this.subscription =
+        pendingSaves
+            .asFlux()
+            .bufferTimeout(batchSize, batchWindow)
+            .onBackpressureBuffer()
+            .flatMap(this::insert, batchConcurrency)
+            .subscribe();
+  }
+
+  @Override
+  public Mono<List<Registration>> findAll() {
+    return databaseClient.sql(SELECT).map(this::toRegistration).all().collectList();
+  }
+
+  @Override
+  public Flux<Registration> findPage(RegistrationKey after, int limit) {
+    if (after == null) {
+      return databaseClient
+          .sql(SELECT + ORDER_BY + " LIMIT $1")
+          .bind(0, limit)
+          .map(this::toRegistration)
+          .all();
+    }
+    // row value comparison, so the page starts with a seek on the primary key
+    return databaseClient
+        .sql(
+            SELECT
+                + " WHERE (user_id, target_type, target) > ($1, $2, $3)"
+                + ORDER_BY
+                + " LIMIT $4")
+        .bind(0, after.getUserId())
+        .bind(1, after.getTargetType())
+        .bind(2, after.getTarget())
+        .bind(3, limit)
+        .map(this::toRegistration)
+        .all();
+  }
+
+  @Override
+  public Mono<List<Registration>> find(String userId) {
+    return databaseClient
+        .sql(SELECT + " WHERE user_id = $1")
+        .bind(0, userId)
+        .map(this::toRegistration)
+        .all()
+        .collectList();
+  }
+
+  @Override
+  public Mono<List<Registration>> findByTargetType(String targetType) {
+    return databaseClient
+        .sql(SELECT + " WHERE target_type = $1")
+        .bind(0, targetType)
+        .map(this::toRegistration)
+        .all()
+        .collectList();
+  }
+
+  @Override
+  public Mono<List<Registration>> findByTarget(String target) {
+    return databaseClient
+        .sql(SELECT + " WHERE target = $1")
+        .bind(0, target)
+        .map(this::toRegistration)
+        .all()
+        .collectList();
+  }
+
+  @Override
+  public Mono<Registration> findOne(RegistrationKey registrationKey) {
+    return databaseClient
+        .sql(SELECT + " WHERE user_id = $1 AND target_type = $2 AND target = $3")
+        .bind(0, registrationKey.getUserId())
+        .bind(1, registrationKey.getTargetType())
+        .bind(2, registrationKey.getTarget())
+        .map(this::toRegistration)
+        .one();
+  }
+
+  @Override
+  public Mono<Registration> save(Registration registration) {
+    return Mono.create(
+        sink -> {
+          var pendingSave = new PendingSave(registration.createdAt(Instant.now()), sink);
+          EmitResult result;
+          do {
+            result = pendingSaves.tryEmitNext(pendingSave);
+          } while (result == EmitResult.FAIL_NON_SERIALIZED);
+          // e.g. FAIL_CANCELLED or FAIL_TERMINATED once the batcher is disposed
+          if (result.isFailure()) {
+            sink.error(new Sinks.EmissionException(result, "Registration save was not queued"));
+          }
+        });
+  }
+
+  @Override
+  public Mono<Void> delete(RegistrationKey registrationKey) {
+    return deleteAll(List.of(registrationKey), Type.DELETED);
+  }
+
+  @Override
+  public Mono<Void> expireAll(Collection<RegistrationKey> registrationKeys) {
+    return deleteAll(registrationKeys, Type.EXPIRED);
+  }
+
+  /**
+   * Moves the expiry time of each claimed row to {@code leaseUntil}. A row is claimable once its
+   * expiry time has passed, so of the instances that armed the same registration only the first
+   * claims it, and a claim whose revoke was never finished lapses by itself.
+   */
+  @Override
+  public Flux<Registration> claimExpired(
+      Collection<Registration> registrations, Instant leaseUntil) {
+    if (registrations.isEmpty()) {
+      return Flux.empty();
+    }
+    var candidates = List.copyOf(registrations);
+    var now = Instant.now().toEpochMilli();
+    return databaseClient
+        .inConnectionMany(
+            connection -> {
+              var statement = connection.createStatement(CLAIM);
+              var first = true;
+              for (var registration : candidates) {
+                if (!first) {
+                  statement.add();
+                }
+                first = false;
+                var registrationKey = registration.getRegistrationKey();
+                statement
+                    .bind(0, leaseUntil.toEpochMilli())
+                    .bind(1, registrationKey.getUserId())
+                    .bind(2, registrationKey.getTargetType())
+                    .bind(3, registrationKey.getTarget())
+                    .bind(4, now);
+              }
+              // one result per binding, 0 rows where another instance holds the claim
+              return Flux.from(statement.execute()).concatMap(Result::getRowsUpdated);
+            })
+        .index()
+        .filter(rowsUpdated -> rowsUpdated.getT2() > 0)
+        .map(rowsUpdated -> candidates.get(rowsUpdated.getT1().intValue()));
+  }
+
+  /** Only publishes the changes made through this instance, not those of other instances. */
+  @Override
+  public Flux<RegistrationChange> changes() {
+    return changePublisher.changes();
+  }
+
+  private Mono<Void> deleteAll(Collection<RegistrationKey> registrationKeys, Type changeType) {
+    if (registrationKeys.isEmpty()) {
+      return Mono.empty();
+    }
+    return databaseClient
+        .inConnectionMany(
+            connection -> {
+              var statement = connection.createStatement(DELETE);
+              var first = true;
+              for (var registrationKey : registrationKeys) {
+                if (!first) {
+                  statement.add();
+                }
+                first = false;
+                statement
+                    .bind(0, registrationKey.getUserId())
+                    .bind(1, registrationKey.getTargetType())
+                    .bind(2, registrationKey.getTarget());
+              }
+              return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+            })
+        .then()
+        .doOnSuccess(
+            unused ->
+                registrationKeys.forEach(
+                    registrationKey ->
+                        changePublisher.publish(
+                            RegistrationChange.removed(changeType, registrationKey))));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscription.dispose();
+  }
+
+  private Mono<Void> insert(List<PendingSave> batch) {
+    var rowsUpdated = new ArrayList<Integer>(batch.size());
+    return databaseClient
+        .inConnectionMany(
+            connection -> {
+              var statement = connection.createStatement(INSERT);
+              var first = true;
+              for (var pendingSave : batch) {
+                if (!first) {
+                  statement.add();
+                }
+                first = false;
+                bind(statement, pendingSave.registration);
+              }
+              // one result per binding, 0 rows where the key is already stored
+              return Flux.from(statement.execute()).concatMap(Result::getRowsUpdated);
+            })
+        .doOnNext(rowsUpdated::add)
+        .then()
+        .onErrorResume(
+            throwable -> {
+              // a conflicting row fails the bindings from there on, the ones before are stored
+              log.warn(
+                  "Batch insert of {} registrations failed after {}, retry the rest one by one",
+                  batch.size(),
+                  rowsUpdated.size());
+              return Mono.empty();
+            })
+        .then(
+            Mono.defer(
+                () -> {
+                  for (int i = 0; i < rowsUpdated.size(); i++) {
+                    complete(batch.get(i), rowsUpdated.get(i) > 0);
+                  }
+                  return Flux.fromIterable(batch.subList(rowsUpdated.size(), batch.size()))
+                      .concatMap(this::insert)
+                      .then();
+                }));
+  }
+
+  private Mono<Void> insert(PendingSave pendingSave) {
+    return databaseClient
+        .inConnection(
+            connection -> {
+              var statement = connection.createStatement(INSERT);
+              bind(statement, pendingSave.registration);
+              return Flux.from(statement.execute())
+                  .flatMap(Result::getRowsUpdated)
+                  .reduce(0, Integer::sum);
+            })
+        .map(rowsUpdated -> rowsUpdated > 0)
+        // a concurrent save of the same key passed NOT EXISTS as well and won
+        .onErrorResume(RegistrationR2dbcDao::isUniqueViolation, throwable -> Mono.just(false))
+        .doOnNext(inserted -> complete(pendingSave, inserted))
+        .onErrorResume(
+            throwable -> {
+              pendingSave.sink.error(throwable);
+              return Mono.empty();
+            })
+        .then();
+  }
+
+  private void complete(PendingSave pendingSave, boolean inserted) {
+    if (inserted) {
+      changePublisher.publish(RegistrationChange.saved(pendingSave.registration));
+    }
+    pendingSave.sink.success(pendingSave.registration);
+  }
+
+  private static boolean isUniqueViolation(Throwable throwable) {
+    return throwable instanceof DataIntegrityViolationException
+        && throwable.getCause() instanceof R2dbcException
+        && UNIQUE_VIOLATION.equals(((R2dbcException) throwable.getCause()).getSqlState());
+  }
+
+  private void bind(Statement statement, Registration registration) {
+    var registrationKey = registration.getRegistrationKey();
+    statement
+        .bind(0, registrationKey.getUserId())
+        .bind(1, registrationKey.getTargetType())
+        .bind(2, registrationKey.getTarget())
+        .bind(3, registration.getAccessToken())
+        .bind(4, registration.getCreateTime().toEpochMilli())
+        .bind(5, registration.getExpiryTime().toEpochMilli());
+  }
+
+  private Registration toRegistration(Row row) {
+    return Registration.of(
+        RegistrationKey.of(
+            row.get("user_id", String.class),
+            row.get("target_type", String.class),
+            row.get("target", String.class)),
+        row.get("access_token", String.class),
+        toInstant(row.get("create_time", Long.class)),
+        toInstant(row.get("expiry_time", Long.class)));
+  }
+
+  private static Instant toInstant(Long epochMilli) {
+    return epochMilli == null ? null : Instant.ofEpochMilli(epochMilli);
+  }
+
+  private static final class PendingSave {
+    private final Registration registration;
+    private final MonoSink<Registration> sink;
+
+    private PendingSave(Registration registration, MonoSink<Registration> sink) {
+      this.registration = registration;
+      this.sink = sink;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package io.github.coffee0127.oauth2.service.dao.r2dbc;
+
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import io.github.coffee0127.oauth2.service.dao.UserDao;
+import io.r2dbc.spi.Row;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@AllArgsConstructor
+@Profile("r2dbc")
+@Component
+public class UserR2dbcDao implements UserDao {
+
+  private static final String UPDATE =
+      "UPDATE user_principal SET issuer = $2, channel_id = $3, expiry_time = $4,"
+          + " issued_time = $5, nonce = $6, name = $7, picture = $8 WHERE user_id = $1";
+  private static final String INSERT =
+      "INSERT INTO user_principal"
+          + " (user_id, issuer, channel_id, expiry_time, issued_time, nonce, name, picture)"
+          + " VALUES ($1, $2, $3, $4, $5, $6, $7, $8)";
+
+  /** Bound parameters per IN query, below the limits of the supported databases. */
+  private static final int MAX_IN_PARAMETERS = 500;
+
+  private final DatabaseClient databaseClient;
+
+  @Override
+  public Mono<UserPrincipal> find(String userId) {
+    return databaseClient
+        .sql("SELECT * FROM user_principal WHERE user_id = $1")
+        .bind(0, userId)
+        .map(this::toUserPrincipal)
+        .one();
+  }
+
+  @Override
+  public Mono<Map<String, UserPrincipal>> findAll(Collection<String> userIds) {
+    return Flux.fromIterable(userIds)
+        .distinct()
+        .buffer(MAX_IN_PARAMETERS)
+        .concatMap(
+            chunk ->
+                databaseClient
+                    .sql("SELECT * FROM user_principal WHERE user_id IN (:userIds)")
+                    .bind("userIds", chunk)
+                    .map(this::toUserPrincipal)
+                    .all())
+        .collectMap(UserPrincipal::getUserId);
+  }
+
+  @Override
+  public Mono<UserPrincipal> save(UserPrincipal userPrincipal) {
+    return execute(UPDATE, userPrincipal)
+        .flatMap(
+            updated ->
+                updated > 0
+                    ? Mono.just(userPrincipal)
+                    : execute(INSERT, userPrincipal)
+                        .thenReturn(userPrincipal)
+                        // inserted concurrently by another login of the same user
+                        .onErrorResume(
+                            DataIntegrityViolationException.class,
+                            e -> execute(UPDATE, userPrincipal).thenReturn(userPrincipal)));
+  }
+
+  @Override
+  public Mono<Void> delete(String userId) {
+    return databaseClient
+        .sql("DELETE FROM user_principal WHERE user_id = $1")
+        .bind(0, userId)
+        .then();
+  }
+
+  private Mono<Integer> execute(String sql, UserPrincipal userPrincipal) {
+    GenericExecuteSpec spec = databaseClient.sql(sql).bind(0, userPrincipal.getUserId());
+    spec = bind(spec, 1, userPrincipal.getIssuer(), String.class);
+    spec = bind(spec, 2, userPrincipal.getChannelId(), String.class);
+    spec = bind(spec, 3, toEpochSecond(userPrincipal.getExpiryTime()), Long.class);
+    spec = bind(spec, 4, toEpochSecond(userPrincipal.getIssuedTime()), Long.class);
+    spec = bind(spec, 5, userPrincipal.getNonce(), String.class);
+    spec = bind(spec, 6, userPrincipal.getName(), String.class);
+    spec = bind(spec, 7, userPrincipal.getPicture(), String.class);
+    return spec.fetch().rowsUpdated();
+  }
+
+  private static GenericExecuteSpec bind(
+      GenericExecuteSpec spec, int index, Object value, Class<?> type) {
+    return value == null ? spec.bindNull(index, type) : spec.bind(index, value);
+  }
+
+  private UserPrincipal toUserPrincipal(Row row) {
+    return new UserPrincipal(
+        row.get("issuer", String.class),
+        row.get("user_id", String.class),
+        row.get("channel_id", String.class),
+        toInstant(row.get("expiry_time", Long.class)),
+        toInstant(row.get("issued_time", Long.class)),
+        row.get("nonce", String.class),
+        row.get("name", String.class),
+        row.get("picture", String.class));
+  }
+
+  private static Long toEpochSecond(Instant instant) {
+    return instant == null ? null : instant.getEpochSecond();
+  }
+
+  private static Instant toInstant(Long epochSecond) {
+    return epochSecond == null ? null : Instant.ofEpochSecond(epochSecond);
+  }
+}
@@ -0,0 +1,73 @@
+package io.github.coffee0127.oauth2.service.dao.redis;
+
+import io.github.coffee0127.oauth2.service.dao.SessionDao;
+import java.time.Duration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/** Session storage shared by every node, expiry is left to the Redis key TTL. */
+@Profile("redis-session")
+@Component
+public class SessionRedisDao implements SessionDao {
+
+  private static final String KEY_PREFIX = "oauth2:session:";
+
+  private final ReactiveRedisTemplate<String, byte[]> template;
+
+  public SessionRedisDao(ReactiveRedisConnectionFactory connectionFactory) {
+    var serializationContext =
+        RedisSerializationContext.<String, byte[]>newSerializationContext(RedisSerializer.string())
+            .value(RedisSerializer.byteArray())
+            .build();
+    this.template = new ReactiveRedisTemplate<>(connectionFactory, serializationContext);
+  }
+
+  @Override
+  public Mono<byte[]> find(String sessionId) {
+    return template.opsForValue().get(KEY_PREFIX + sessionId);
+  }
+
+  @Override
+  public Mono<Void> save(String sessionId, byte[] data, Duration ttl) {
+    var operations = template.opsForValue();
+    return (ttl.isNegative()
+            ? operations.set(KEY_PREFIX + sessionId, data)
+            : operations.set(KEY_PREFIX + sessionId, data, ttl))
+        .then();
+  }
+
+  @Override
+  public Mono<Void> touch(String sessionId, Duration ttl) {
+    return (ttl.isNegative()
+            ? template.persist(KEY_PREFIX + sessionId)
+            : template.expire(KEY_PREFIX + sessionId, ttl))
+        .then();
+  }
+
+  /** Needs Redis 6 for {@code KEEPTTL}. */
+  @Override
+  public Mono<Void> update(String sessionId, byte[] data) {
+    var serializationContext = template.getSerializationContext();
+    var key = serializationContext.getKeySerializationPair().write(KEY_PREFIX + sessionId);
+    var value = serializationContext.getValueSerializationPair().write(data);
+    return template
+        .execute(
+            connection ->
+                connection
+                    .stringCommands()
+                    .set(key, value, Expiration.keepTtl(), SetOption.SET_IF_PRESENT))
+        .then();
+  }
+
+  @Override
+  public Mono<Void> delete(String sessionId) {
+    return template.delete(KEY_PREFIX + sessionId).then();
+  }
+}
@@ -0,0 +1,245 @@
+package io.github.coffee0127.oauth2.service.scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Hierarchical timing wheel driven by one periodic task on a Reactor {@link Scheduler}.
+ *
+ * <p>Level {@code n} has {@code wheelSize} buckets of {@code wheelSize^n} ticks each. Scheduling and
+ * cancelling are O(1) and lock-free; an entry is cascaded towards level 0 at most {@code levels - 1}
+ * times before it expires. Only the scheduler worker touches the buckets, so expiry actions must not
+ * block.
+ *
+ * @param <T> type of the payload handed to the expiry action
+ */
+@Slf4j
+public class TimingWheel<T> implements Disposable {
+
+  private final long tickMillis;
+  private final int bits;
+  private final int mask;
+  private final int levels;
+  private final long maxDelta;
+  private final Scheduler scheduler;
+  private final Consumer<T> action;
+
+  /** buckets[level][slot] is the head of a singly linked list of timeouts. */
+  private final Timeout<T>[][] buckets;
+
+  private final Queue<Timeout<T>> additions = new ConcurrentLinkedQueue<>();
+  private final AtomicLong pendingCount = new AtomicLong();
+  private final AtomicLong firedCount = new AtomicLong();
+  private final AtomicLong lastLagMillis = new AtomicLong();
+  private final AtomicLong maxLagMillis = new AtomicLong();
+
+  private long currentTick;
+  private Disposable ticker;
+
+  /**
+   * @param tick resolution of the wheel
+   * @param wheelSize buckets per level, must be a power of two
+   * @param levels number of levels, the wheel spans {@code tick * wheelSize^levels}
+   * @param scheduler scheduler that drives the ticks and runs the expiry action
+   * @param action invoked with the payload of every expired timeout
+   */
+  public TimingWheel(
+      Duration tick, int wheelSize, int levels, Scheduler scheduler, Consumer<T> action) {
+    if (Integer.bitCount(wheelSize) != 1) {
+      throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+    }
+    this.tickMillis = tick.toMillis();
+    this.bits = Integer.numberOfTrailingZeros(wheelSize);
+    this.mask = wheelSize - 1;
+    this.levels = levels;
+    this.maxDelta = (1L << (bits * levels)) - 1;
+    this.scheduler = scheduler;
+    this.action = action;
+    this.buckets = newBuckets(levels, wheelSize);
+  }
+
+  public TimingWheel<T> start() {
+    currentTick = scheduler.now(TimeUnit.MILLISECONDS) / tickMillis;
+    ticker =
+        scheduler.schedulePeriodically(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Schedules {@code payload} to expire at {@code deadline}; safe to call from any thread. */
+  public Timeout<T> schedule(T payload, Instant deadline) {
+    var timeout = new Timeout<>(this, payload, deadline.toEpochMilli());
+    pendingCount.incrementAndGet();
+    additions.offer(timeout);
+    return timeout;
+  }
+
+  public long getPendingCount() {
+    return pendingCount.get();
+  }
+
+  public long getFiredCount() {
+    return firedCount.get();
+  }
+
+  /** Lag between the deadline and the actual firing of the most recent expiry. */
+  public Duration getLastLag() {
+    return Duration.ofMillis(lastLagMillis.get());
+  }
+
+  public Duration getMaxLag() {
+    return Duration.ofMillis(maxLagMillis.get());
+  }
+
+  @Override
+  public void dispose() {
+    if (ticker != null) {
+      ticker.dispose();
+    }
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return ticker != null && ticker.isDisposed();
+  }
+
+  private void advance() {
+    var now = scheduler.now(TimeUnit.MILLISECONDS);
+    var targetTick = now / tickMillis;
+    while (currentTick < targetTick) {
+      currentTick++;
+      for (int level = levels - 1; level > 0; level--) {
+        if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+          cascade(level, (int) ((currentTick >>> (bits * level)) & mask));
+        }
+      }
+      drainAdditions();
+      expire((int) (currentTick & mask), now);
+    }
+  }
+
+  private void cascade(int level, int slot) {
+    var timeout = buckets[level][slot];
+    buckets[level][slot] = null;
+    while (timeout != null) {
+      var next = timeout.next;
+      if (!timeout.isCancelled()) {
+        place(timeout);
+      }
+      timeout = next;
+    }
+  }
+
+  private void drainAdditions() {
+    Timeout<T> timeout;
+    while ((timeout = additions.poll()) != null) {
+      if (!timeout.isCancelled()) {
+        place(timeout);
+      }
+    }
+  }
+
+  private void place(Timeout<T> timeout) {
+    var deadlineTick = Math.max(ceilDiv(timeout.deadlineMillis, tickMillis), currentTick);
+    var delta = Math.min(deadlineTick - currentTick, maxDelta);
+    var level = 0;
+    while (level < levels - 1 && delta >= (1L << (bits * (level + 1)))) {
+      level++;
+    }
+    var slot = (int) (((currentTick + delta) >>> (bits * level)) & mask);
+    timeout.next = buckets[level][slot];
+    buckets[level][slot] = timeout;
+  }
+
+  private void expire(int slot, long now) {
+    var timeout = buckets[0][slot];
+    buckets[0][slot] = null;
+    while (timeout != null) {
+      var next = timeout.next;
+      timeout.next = null;
+      if (timeout.expire()) {
+        pendingCount.decrementAndGet();
+        firedCount.incrementAndGet();
+        var lag = Math.max(0, now - timeout.deadlineMillis);
+        lastLagMillis.set(lag);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        try {
+          action.accept(timeout.payload);
+        } catch (Exception e) {
+          log.error("Expiry action failed for {}", timeout.payload, e);
+        }
+      }
+      timeout = next;
+    }
+  }
+
+  private static long ceilDiv(long dividend, long divisor) {
+    return -Math.floorDiv(-dividend, divisor);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Timeout<T>[][] newBuckets(int levels, int wheelSize) {
+    return (Timeout<T>[][]) new Timeout<?>[levels][wheelSize];
+  }
+
+  /** Handle of a scheduled expiry. */
+  public static final class Timeout<T> {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final TimingWheel<T> wheel;
+    private final T payload;
+    private final long deadlineMillis;
+    private volatile int state;
+    private Timeout<T> next;
+
+    private Timeout(TimingWheel<T> wheel, T payload, long deadlineMillis) {
+      this.wheel = wheel;
+      this.payload = payload;
+      this.deadlineMillis = deadlineMillis;
+    }
+
+    public T getPayload() {
+      return payload;
+    }
+
+    public Instant getDeadline() {
+      return Instant.ofEpochMilli(deadlineMillis);
+    }
+
+    public boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    /**
+     * Cancels the expiry. The entry itself is dropped lazily when its bucket is next visited.
+     *
+     * @return {@code false} if the timeout has already expired or been cancelled
+     */
+    public boolean cancel() {
+      if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+        wheel.pendingCount.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    private boolean expire() {
+      return STATE.compareAndSet(this, PENDING, EXPIRED);
+    }
+  }
+}
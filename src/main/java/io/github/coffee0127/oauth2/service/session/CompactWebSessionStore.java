@@ -0,0 +1,217 @@
+package io.github.coffee0127.oauth2.service.session;
+
+import io.github.coffee0127.oauth2.service.dao.SessionDao;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.web.server.WebSession;
+import org.springframework.web.server.session.WebSessionStore;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link WebSessionStore} that keeps sessions in a {@link SessionDao} in the compact binary form of
+ * {@link SessionCodec}, so any node backed by the same storage can serve a session.
+ *
+ * <p>A session is written when the response is committed. If its content is unchanged since it was
+ * retrieved, only its expiry is restarted.
+ */
+public class CompactWebSessionStore implements WebSessionStore {
+
+  private final SessionDao dao;
+  private final Duration maxIdleTime;
+  private final Clock clock = Clock.systemUTC();
+
+  public CompactWebSessionStore(SessionDao dao, Duration maxIdleTime) {
+    this.dao = dao;
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  @Override
+  public Mono<WebSession> createWebSession() {
+    // UUID generation may block on entropy, same as the default in-memory store
+    return Mono.<WebSession>fromSupplier(
+            () -> new CompactWebSession(generateId(), clock.instant(), maxIdleTime, null))
+        .subscribeOn(Schedulers.boundedElastic())
+        .publishOn(Schedulers.parallel());
+  }
+
+  @Override
+  public Mono<WebSession> retrieveSession(String sessionId) {
+    return dao.find(sessionId)
+        .map(
+            data -> {
+              var attributes = new ConcurrentHashMap<String, Object>();
+              var header = SessionCodec.decode(data, attributes);
+              var session =
+                  new CompactWebSession(
+                      sessionId, header.creationTime, header.maxIdleTime, attributes, data);
+              session.state.set(State.STARTED);
+              return session;
+            });
+  }
+
+  /**
+   * Stores the attributes of a session changed outside of its requests. Unlike {@link
+   * WebSession#save()} this is no activity of the session: its expiry is kept, and a session that
+   * ended meanwhile is not brought back.
+   */
+  public Mono<Void> update(WebSession webSession) {
+    var data =
+        SessionCodec.encode(
+            webSession.getCreationTime(), webSession.getMaxIdleTime(), webSession.getAttributes());
+    return dao.update(webSession.getId(), data);
+  }
+
+  @Override
+  public Mono<Void> removeSession(String sessionId) {
+    return dao.delete(sessionId);
+  }
+
+  @Override
+  public Mono<WebSession> updateLastAccessTime(WebSession webSession) {
+    return Mono.fromSupplier(
+        () -> {
+          ((CompactWebSession) webSession).lastAccessTime = clock.instant();
+          return webSession;
+        });
+  }
+
+  private static String generateId() {
+    return UUID.randomUUID().toString();
+  }
+
+  private enum State {
+    NEW,
+    STARTED,
+    EXPIRED
+  }
+
+  private class CompactWebSession implements WebSession {
+
+    private final AtomicReference<String> id;
+    private final Map<String, Object> attributes;
+    private final Instant creationTime;
+    private final AtomicReference<State> state = new AtomicReference<>(State.NEW);
+    private volatile Instant lastAccessTime;
+    private volatile Duration maxIdleTime;
+    /** Content as last read from or written to the storage under the current id. */
+    private volatile byte[] stored;
+
+    private CompactWebSession(
+        String id, Instant creationTime, Duration maxIdleTime, byte[] stored) {
+      this(id, creationTime, maxIdleTime, new ConcurrentHashMap<>(), stored);
+    }
+
+    private CompactWebSession(
+        String id,
+        Instant creationTime,
+        Duration maxIdleTime,
+        Map<String, Object> attributes,
+        byte[] stored) {
+      this.id = new AtomicReference<>(id);
+      this.creationTime = creationTime;
+      this.lastAccessTime = clock.instant();
+      this.maxIdleTime = maxIdleTime;
+      this.attributes = attributes;
+      this.stored = stored;
+    }
+
+    @Override
+    public String getId() {
+      return id.get();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public Instant getCreationTime() {
+      return creationTime;
+    }
+
+    @Override
+    public Instant getLastAccessTime() {
+      return lastAccessTime;
+    }
+
+    @Override
+    public void setMaxIdleTime(Duration maxIdleTime) {
+      this.maxIdleTime = maxIdleTime;
+    }
+
+    @Override
+    public Duration getMaxIdleTime() {
+      return maxIdleTime;
+    }
+
+    @Override
+    public void start() {
+      state.compareAndSet(State.NEW, State.STARTED);
+    }
+
+    @Override
+    public boolean isStarted() {
+      return state.get() == State.STARTED || !attributes.isEmpty();
+    }
+
+    @Override
+    public Mono<Void> changeSessionId() {
+      return Mono.fromSupplier(CompactWebSessionStore::generateId)
+          .subscribeOn(Schedulers.boundedElastic())
+          .publishOn(Schedulers.parallel())
+          .flatMap(
+              newId -> {
+                var previousId = id.getAndSet(newId);
+                stored = null;
+                return dao.delete(previousId);
+              });
+    }
+
+    @Override
+    public Mono<Void> invalidate() {
+      state.set(State.EXPIRED);
+      attributes.clear();
+      return dao.delete(id.get());
+    }
+
+    @Override
+    public Mono<Void> save() {
+      if (isExpired()) {
+        return Mono.error(new IllegalStateException("Session=[" + id.get() + "] expired"));
+      }
+      if (!attributes.isEmpty()) {
+        state.compareAndSet(State.NEW, State.STARTED);
+      }
+      if (state.get() != State.STARTED) {
+        return Mono.empty();
+      }
+      var data = SessionCodec.encode(creationTime, maxIdleTime, attributes);
+      if (Arrays.equals(data, stored)) {
+        return dao.touch(id.get(), maxIdleTime);
+      }
+      stored = data;
+      return dao.save(id.get(), data, maxIdleTime);
+    }
+
+    @Override
+    public boolean isExpired() {
+      if (state.get() == State.EXPIRED) {
+        return true;
+      }
+      if (!maxIdleTime.isNegative()
+          && clock.instant().isAfter(lastAccessTime.plus(maxIdleTime))) {
+        state.set(State.EXPIRED);
+        return true;
+      }
+      return false;
+    }
+  }
+}
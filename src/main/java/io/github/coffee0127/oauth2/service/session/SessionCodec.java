@@ -0,0 +1,172 @@
+package io.github.coffee0127.oauth2.service.session;
+
+import io.github.coffee0127.oauth2.objects.AccessTokenResponse;
+import io.github.coffee0127.oauth2.objects.UserPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Binary layout of a stored web session: version, creation time, max idle time and the attributes,
+ * each written as its name, a type tag and the fields of the value. Only the attribute types the
+ * application keeps in the session are supported.
+ */
+class SessionCodec {
+
+  private static final byte VERSION = 1;
+
+  private static final byte STRING = 1;
+  private static final byte ACCESS_TOKEN_RESPONSE = 2;
+  private static final byte USER_PRINCIPAL = 3;
+
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private SessionCodec() {}
+
+  static byte[] encode(Instant creationTime, Duration maxIdleTime, Map<String, Object> attributes) {
+    var bytes = new ByteArrayOutputStream(256);
+    try (var out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeLong(creationTime.toEpochMilli());
+      out.writeLong(maxIdleTime.toMillis());
+      out.writeInt(attributes.size());
+      for (var attribute : attributes.entrySet()) {
+        writeString(out, attribute.getKey());
+        writeValue(out, attribute.getKey(), attribute.getValue());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Restores the fields of a stored session.
+   *
+   * @param attributes filled with the decoded attributes
+   */
+  static Header decode(byte[] data, Map<String, Object> attributes) {
+    try (var in = new DataInputStream(new ByteArrayInputStream(data))) {
+      var version = in.readByte();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported session version: " + version);
+      }
+      var header =
+          new Header(Instant.ofEpochMilli(in.readLong()), Duration.ofMillis(in.readLong()));
+      var size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        attributes.put(readString(in), readValue(in));
+      }
+      return header;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, String name, Object value)
+      throws IOException {
+    if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof AccessTokenResponse) {
+      var token = (AccessTokenResponse) value;
+      out.writeByte(ACCESS_TOKEN_RESPONSE);
+      writeString(out, token.getScope());
+      writeString(out, token.getAccessToken());
+      writeString(out, token.getTokenType());
+      out.writeInt(token.getExpiresIn() == null ? -1 : token.getExpiresIn());
+      writeString(out, token.getRefreshToken());
+      writeString(out, token.getIdToken());
+    } else if (value instanceof UserPrincipal) {
+      var user = (UserPrincipal) value;
+      out.writeByte(USER_PRINCIPAL);
+      writeString(out, user.getIssuer());
+      writeString(out, user.getUserId());
+      writeString(out, user.getChannelId());
+      writeInstant(out, user.getExpiryTime());
+      writeInstant(out, user.getIssuedTime());
+      writeString(out, user.getNonce());
+      writeString(out, user.getName());
+      writeString(out, user.getPicture());
+    } else {
+      throw new IllegalArgumentException(
+          "Unsupported session attribute " + name + ": " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    var type = in.readByte();
+    switch (type) {
+      case STRING:
+        return readString(in);
+      case ACCESS_TOKEN_RESPONSE:
+        var token = new AccessTokenResponse();
+        token.setScope(readString(in));
+        token.setAccessToken(readString(in));
+        token.setTokenType(readString(in));
+        var expiresIn = in.readInt();
+        token.setExpiresIn(expiresIn < 0 ? null : expiresIn);
+        token.setRefreshToken(readString(in));
+        token.setIdToken(readString(in));
+        return token;
+      case USER_PRINCIPAL:
+        return new UserPrincipal(
+            readString(in),
+            readString(in),
+            readString(in),
+            readInstant(in),
+            readInstant(in),
+            readString(in),
+            readString(in),
+            readString(in));
+      default:
+        throw new IllegalArgumentException("Unknown session attribute type: " + type);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      var bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    var length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    var value = new byte[length];
+    in.readFully(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+    out.writeLong(instant == null ? NO_TIME : instant.toEpochMilli());
+  }
+
+  private static Instant readInstant(DataInputStream in) throws IOException {
+    var millis = in.readLong();
+    return millis == NO_TIME ? null : Instant.ofEpochMilli(millis);
+  }
+
+  static class Header {
+    final Instant creationTime;
+    final Duration maxIdleTime;
+
+    private Header(Instant creationTime, Duration maxIdleTime) {
+      this.creationTime = creationTime;
+      this.maxIdleTime = maxIdleTime;
+    }
+  }
+}
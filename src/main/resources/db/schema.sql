@@ -0,0 +1,27 @@
+CREATE TABLE IF NOT EXISTS registration
+(
+    user_id      VARCHAR(64)  NOT NULL,
+    target_type  VARCHAR(16)  NOT NULL,
+    target       VARCHAR(255) NOT NULL,
+    access_token VARCHAR(255) NOT NULL,
+    create_time  BIGINT,
+    expiry_time  BIGINT,
+    -- also serves find(userId) through its leading column
+    PRIMARY KEY (user_id, target_type, target)
+);
+
+CREATE INDEX IF NOT EXISTS registration_target_type_idx ON registration (target_type);
+
+CREATE INDEX IF NOT EXISTS registration_target_idx ON registration (target);
+
+CREATE TABLE IF NOT EXISTS user_principal
+(
+    user_id     VARCHAR(64) NOT NULL PRIMARY KEY,
+    issuer      VARCHAR(255),
+    channel_id  VARCHAR(64),
+    expiry_time BIGINT,
+    issued_time BIGINT,
+    nonce       VARCHAR(255),
+    name        VARCHAR(255),
+    picture     VARCHAR(1024)
+);
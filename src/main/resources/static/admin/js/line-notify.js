@@ -20,21 +20,29 @@ $(function () {
   const url = '/admin/api/registrations';
 
   const $registrationsTable = $('#registrations tbody');
-  $registrationsTable.empty();
-  $.ajax(url)
-  .done(registrations => {
-    if (registrations.length === 0) {
-      const $tr = $(document.createElement('tr'));
-      $tr.append($(document.createElement('td'))
-      .addClass('text-center')
-      .text('No registrations found')
-      .attr('colspan', 6));
-      $registrationsTable.append($tr);
-    }
 
-    const now = new Date().getTime();
-    registrations.forEach((registration, index) => {
-      const seqNo = index + 1;
+  // Rows of the registrations not deleted yet
+  const rows = new Map();
+  const rowKey = registration =>
+    [registration.userId, registration.targetType, registration.target].join('\u0000');
+
+  const showEmpty = () => {
+    const $tr = $(document.createElement('tr')).addClass('empty');
+    $tr.append($(document.createElement('td'))
+    .addClass('text-center')
+    .text('No registrations found')
+    .attr('colspan', 6));
+    $registrationsTable.append($tr);
+  }
+
+  let seqNo = 0;
+  const appendRegistrations = registrations => {
+    registrations.forEach(registration => {
+      if (rows.has(rowKey(registration))) {
+        return;
+      }
+      $registrationsTable.find('tr.empty').remove();
+      seqNo++;
       const $tr = $(document.createElement('tr')).addClass('registration')
       .data('userId', registration.userId)
       .data('type', registration.targetType)
@@ -49,57 +57,96 @@ $(function () {
       $tr.append($(document.createElement('td')).text(registration.target));
       $tr.append($(document.createElement('td')).text(
         formatDate(registration.expiryTime)));
-      // Register cleanup
-      setTimeout(() => {
-        cleanup($(`#registration-${seqNo}`));
-      }, registration.expiryTime - now);
 
       $tr.on('click', event => {
         const checkbox = $(event.target).parent('tr').find('input');
         checkbox.prop('checked', !checkbox.is(':checked'));
       })
 
+      rows.set(rowKey(registration), $tr);
       $registrationsTable.append($tr);
     })
+  }
 
-    // Toggle .notify-btn
-    const $notifyResult = $('#notify-result');
-    $('#notify-msg').on('keyup change', event => {
-      const $this = $(event.target);
-      const value = $.trim($this.val());
-      $notifyResult.addClass('invisible');
-      if (value !== '') {
-        $('#notify-btn').prop('disabled', false);
-      } else {
-        $('#notify-btn').prop('disabled', true);
-      }
+  const removeRegistration = registration => {
+    const $tr = rows.get(rowKey(registration));
+    if ($tr) {
+      rows.delete(rowKey(registration));
+      cleanup($tr.find('input'));
+    }
+  }
+
+  // Render every page as soon as it arrives
+  const loadPage = cursor =>
+    $.ajax(`${url}/page`, {data: cursor ? {cursor} : {}})
+    .then(page => {
+      appendRegistrations(page.items);
+      return page.nextCursor ? loadPage(page.nextCursor) : null;
     });
 
-    $('#notify-btn').on('click', () => {
-      const msg = $('#notify-msg').val();
-      const elements = [];
-      $('.registration input:checked').each((index, element) => {
-        elements.push($(element).parents('tr'));
-      });
-      if (elements.length === 0) {
-        alert('Please select target to send notification.');
-        return;
+  const loadRegistrations = () => {
+    $registrationsTable.empty();
+    rows.clear();
+    seqNo = 0;
+    loadPage()
+    .done(() => {
+      if (seqNo === 0) {
+        showEmpty();
       }
-      const payload = elements.map(element => {
-        const userId = element.data('userId');
-        const type = element.data('type');
-        const target = element.data('target');
-        return {userId, type, target, msg};
-      });
-      $.ajax({
-        url,
-        method: 'POST',
-        contentType: 'application/json',
-        data: JSON.stringify(payload)
-      })
-      .done(() => {
-        $notifyResult.removeClass('invisible');
-      });
     });
-  })
+  }
+
+  // Follow registration changes, (re)loading the table whenever the stream (re)connects
+  const changes = new EventSource(`${url}/changes`);
+  changes.addEventListener('open', loadRegistrations);
+  changes.addEventListener('error', () => {
+    // not retried by the browser, e.g. after the session expired
+    if (changes.readyState === EventSource.CLOSED) {
+      loadRegistrations();
+    }
+  });
+  changes.addEventListener('SAVED',
+    event => appendRegistrations([JSON.parse(event.data)]));
+  ['DELETED', 'EXPIRED'].forEach(type => changes.addEventListener(type,
+    event => removeRegistration(JSON.parse(event.data))));
+
+  // Toggle .notify-btn
+  const $notifyResult = $('#notify-result');
+  $('#notify-msg').on('keyup change', event => {
+    const $this = $(event.target);
+    const value = $.trim($this.val());
+    $notifyResult.addClass('invisible');
+    if (value !== '') {
+      $('#notify-btn').prop('disabled', false);
+    } else {
+      $('#notify-btn').prop('disabled', true);
+    }
+  });
+
+  $('#notify-btn').on('click', () => {
+    const msg = $('#notify-msg').val();
+    const elements = [];
+    $('.registration input:checked').each((index, element) => {
+      elements.push($(element).parents('tr'));
+    });
+    if (elements.length === 0) {
+      alert('Please select target to send notification.');
+      return;
+    }
+    const payload = elements.map(element => {
+      const userId = element.data('userId');
+      const type = element.data('type');
+      const target = element.data('target');
+      return {userId, type, target, msg};
+    });
+    $.ajax({
+      url,
+      method: 'POST',
+      contentType: 'application/json',
+      data: JSON.stringify(payload)
+    })
+    .done(() => {
+      $notifyResult.removeClass('invisible');
+    });
+  });
 });
@@ -24,102 +24,141 @@ $(function () {
   const url = '/api/registrations';
 
   const $registrationsTable = $('#registrations tbody');
-  $registrationsTable.empty();
-  $.ajax(url)
-  .done(registrations => {
-    if (registrations.length === 0) {
-      const $tr = $(document.createElement('tr'));
-      $tr.append($(document.createElement('td'))
-      .addClass('text-center')
-      .text('No registrations found')
-      .attr('colspan', 5));
-      $registrationsTable.append($tr);
+
+  // Rows of the registrations not deleted yet
+  const rows = new Map();
+  const rowKey = registration =>
+    [registration.targetType, registration.target].join('\u0000');
+
+  const showEmpty = () => {
+    const $tr = $(document.createElement('tr')).addClass('empty');
+    $tr.append($(document.createElement('td'))
+    .addClass('text-center')
+    .text('No registrations found')
+    .attr('colspan', 5));
+    $registrationsTable.append($tr);
+  }
+
+  let seqNo = 0;
+  const appendRegistration = registration => {
+    if (rows.has(rowKey(registration))) {
+      return;
     }
+    $registrationsTable.find('tr.empty').remove();
+    seqNo++;
+    const $tr = $(document.createElement('tr')).data('key', rowKey(registration));
+    $tr.append(
+      $(document.createElement('th')).text(seqNo).attr('scope', 'row'));
+    $tr.append($(document.createElement('td')).text(registration.targetType));
+    $tr.append($(document.createElement('td')).text(registration.target));
+    $tr.append($(document.createElement('td')).text(
+      formatDate(registration.expiryTime)));
+    $tr.append($(document.createElement('td'))
+      .attr('data-type', registration.targetType)
+      .attr('data-target', registration.target)
+      .append(`
+        <div>
+          <button type="button" id="revoke-btn-${seqNo}"
+                  class="revoke-btn btn btn-danger notify-button"
+                  data-index="${seqNo}">Revoke
+          </button>
+          <button type="button" id="notify-btn-${seqNo}"
+                  class="notify-btn btn btn-primary notify-button"
+                  data-index="${seqNo}" disabled>Notify
+          </button>
+          <span id="notify-result-${seqNo}"
+            class="notify-result invisible">Message sent...</span>
+        </div>
+        <div class="mt-2">
+          <label>Send message</label>
+          <textarea id="notify-msg-${seqNo}"
+                    class="notify-msg form-control" rows="3"
+                    data-index="${seqNo}"></textarea>
+        </div>`));
+    rows.set(rowKey(registration), $tr);
+    $registrationsTable.append($tr);
+  }
 
-    const now = new Date().getTime();
-    registrations.forEach((registration, index) => {
-      const $tr = $(document.createElement('tr'));
-      const seqNo = index + 1;
-      $tr.append(
-        $(document.createElement('th')).text(seqNo).attr('scope', 'row'));
-      $tr.append($(document.createElement('td')).text(registration.targetType));
-      $tr.append($(document.createElement('td')).text(registration.target));
-      $tr.append($(document.createElement('td')).text(
-        formatDate(registration.expiryTime)));
-      // Register cleanup
-      setTimeout(() => {
-        cleanup($(`#revoke-btn-${seqNo}`));
-      }, registration.expiryTime - now);
-
-      $tr.append(`
-        <td data-type="${registration.targetType}"
-          data-target="${registration.target}">
-          <div>
-            <button type="button" id="revoke-btn-${seqNo}"
-                    class="revoke-btn btn btn-danger notify-button"
-                    data-index="${seqNo}">Revoke
-            </button>
-            <button type="button" id="notify-btn-${seqNo}"
-                    class="notify-btn btn btn-primary notify-button"
-                    data-index="${seqNo}" disabled>Notify
-            </button>
-            <span id="notify-result-${seqNo}"
-              class="notify-result invisible">Message sent...</span>
-          </div>
-          <div class="mt-2">
-            <label>Send message</label>
-            <textarea id="notify-msg-${seqNo}"
-                      class="notify-msg form-control" rows="3"
-                      data-index="${seqNo}"></textarea>
-          </div>
-        </td>`);
-      $registrationsTable.append($tr);
-    })
+  const removeRegistration = registration => {
+    const $tr = rows.get(rowKey(registration));
+    if ($tr) {
+      rows.delete(rowKey(registration));
+      cleanup($tr.find('.revoke-btn'));
+    }
+  }
 
-    // Toggle .notify-btn
-    $('.notify-msg').on('keyup change', event => {
-      const $this = $(event.target);
-      const value = $.trim($this.val());
-      const index = $this.data('index');
-      $(`#notify-result-${index}`).addClass('invisible');
-      if (value !== '') {
-        $(`#notify-btn-${index}`).prop('disabled', false)
-      } else {
-        $(`#notify-btn-${index}`).prop('disabled', true)
+  const loadRegistrations = () =>
+    $.ajax(url)
+    .done(registrations => {
+      $registrationsTable.empty();
+      rows.clear();
+      seqNo = 0;
+      if (registrations.length === 0) {
+        showEmpty();
       }
+      registrations.forEach(appendRegistration);
     });
 
-    $('.notify-btn').on('click', event => {
-      const $this = $(event.target);
-      const container = $this.parents('td');
-      const type = container.data('type');
-      const target = container.data('target');
-      const msg = $(`#notify-msg-${$this.data('index')}`).val();
-      $.ajax({
-        url,
-        method: 'POST',
-        contentType: 'application/json',
-        data: JSON.stringify({type, target, msg})
-      })
-      .done(() => {
-        $this.next().removeClass('invisible');
-      })
-    });
+  // Follow registration changes, (re)loading the table whenever the stream (re)connects
+  const changes = new EventSource(`${url}/changes`);
+  changes.addEventListener('open', loadRegistrations);
+  changes.addEventListener('error', () => {
+    // not retried by the browser, e.g. after the session expired
+    if (changes.readyState === EventSource.CLOSED) {
+      loadRegistrations();
+    }
+  });
+  changes.addEventListener('SAVED',
+    event => appendRegistration(JSON.parse(event.data)));
+  ['DELETED', 'EXPIRED'].forEach(type => changes.addEventListener(type,
+    event => removeRegistration(JSON.parse(event.data))));
 
-    $('.revoke-btn').on('click', event => {
-      const $this = $(event.target);
-      const container = $this.parents('td');
-      const type = container.data('type');
-      const target = container.data('target');
-      $.ajax({
-        url,
-        method: 'DELETE',
-        headers: {
-          type,
-          target
-        }
-      })
-      .done(() => cleanup($this))
-    });
-  })
+  // Toggle .notify-btn
+  $registrationsTable.on('keyup change', '.notify-msg', event => {
+    const $this = $(event.target);
+    const value = $.trim($this.val());
+    const index = $this.data('index');
+    $(`#notify-result-${index}`).addClass('invisible');
+    if (value !== '') {
+      $(`#notify-btn-${index}`).prop('disabled', false)
+    } else {
+      $(`#notify-btn-${index}`).prop('disabled', true)
+    }
+  });
+
+  $registrationsTable.on('click', '.notify-btn', event => {
+    const $this = $(event.target);
+    const container = $this.parents('td');
+    const type = container.data('type');
+    const target = container.data('target');
+    const msg = $(`#notify-msg-${$this.data('index')}`).val();
+    $.ajax({
+      url,
+      method: 'POST',
+      contentType: 'application/json',
+      data: JSON.stringify({type, target, msg})
+    })
+    .done(() => {
+      $this.next().removeClass('invisible');
+    })
+  });
+
+  $registrationsTable.on('click', '.revoke-btn', event => {
+    const $this = $(event.target);
+    const container = $this.parents('td');
+    const type = container.data('type');
+    const target = container.data('target');
+    $.ajax({
+      url,
+      method: 'DELETE',
+      headers: {
+        type,
+        target
+      }
+    })
+    .done(() => {
+      rows.delete($this.parents('tr').data('key'));
+      cleanup($this);
+    })
+  });
 });